@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+/** In-memory index of the asset tree, so {@link AndroidFileHandle} can answer exists, isDirectory, list and length for
+ * {@link Files.FileType#Internal} files without going through the {@link AssetManager}, whose list method is very slow. The
+ * tree is either listed lazily, every directory once the first time a path in it is looked up, or read from a manifest written
+ * at build time with {@link #write(OutputStream)}, which avoids listing it on the device at all.
+ * 
+ * Assets can't change while the application runs, so nothing is listed twice. Lengths that are unknown are looked up the first
+ * time they are asked for; as directories have no length, a file whose length is known is never listed. All methods are
+ * thread safe. */
+public class AndroidAssetIndex {
+	/** Lists the directories and measures the files of an asset tree. {@link #of(AssetManager)} provides one backed by an
+	 * {@link AssetManager}; other implementations can stand in for it in tests. */
+	public interface Source {
+		/** @param path the path of the directory, with forward slashes and without a leading slash, empty for the root.
+		 * @return the names of the children, empty if the path is a file or doesn't exist. */
+		String[] list (String path) throws IOException;
+
+		/** @return the length of the file, or -1 if it can't be determined without reading the file. */
+		long length (String path);
+	}
+
+	static private final String[] EMPTY = new String[0];
+
+	private final Source source;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private AndroidAssetIndex (Source source) {
+		this.source = source;
+		entries.put("", new Entry(null));
+	}
+
+	/** Creates an index that lists the directories of the asset manager as they are looked up. */
+	static public AndroidAssetIndex of (final AssetManager assets) {
+		return of(new Source() {
+			public String[] list (String path) throws IOException {
+				return assets.list(path);
+			}
+
+			public long length (String path) {
+				AssetFileDescriptor descriptor = null;
+				try {
+					descriptor = assets.openFd(path);
+					return descriptor.getLength();
+				} catch (IOException ex) {
+					// Compressed assets can't be opened as a file descriptor.
+					return -1;
+				} finally {
+					if (descriptor != null) {
+						try {
+							descriptor.close();
+						} catch (IOException ignored) {
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/** Creates an index that lists the directories of the source as they are looked up. */
+	static public AndroidAssetIndex of (Source source) {
+		return new AndroidAssetIndex(source);
+	}
+
+	/** Reads an index from a manifest with one file per line: the path relative to the assets directory, with forward slashes,
+	 * optionally followed by a tab and the length of the file. Lengths that are missing are looked up in the source when they are
+	 * asked for. The stream is closed.
+	 * @param source may be null, in which case missing lengths are reported as unknown. */
+	static public AndroidAssetIndex read (InputStream manifest, Source source) {
+		AndroidAssetIndex index = new AndroidAssetIndex(source);
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(manifest, "UTF-8"));
+			Map<String, List<String>> children = new HashMap<String, List<String>>();
+			children.put("", new ArrayList<String>());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0) continue;
+				int tab = line.indexOf('\t');
+				String path = normalize(tab == -1 ? line : line.substring(0, tab));
+				Entry entry = new Entry(EMPTY);
+				if (tab != -1) entry.length = Long.parseLong(line.substring(tab + 1).trim());
+				index.entries.put(path, entry);
+				// Register the file with its parent, and every parent directory with its own parent.
+				while (path.length() > 0) {
+					int slash = path.lastIndexOf('/');
+					String parent = slash == -1 ? "" : path.substring(0, slash);
+					List<String> siblings = children.get(parent);
+					boolean known = siblings != null;
+					if (!known) children.put(parent, siblings = new ArrayList<String>());
+					siblings.add(path.substring(slash + 1));
+					if (known) break;
+					path = parent;
+				}
+			}
+			for (Map.Entry<String, List<String>> directory : children.entrySet()) {
+				List<String> names = directory.getValue();
+				index.entries.put(directory.getKey(), new Entry(names.toArray(new String[names.size()])));
+			}
+		} catch (Exception ex) {
+			throw new RuntimeException("Error reading asset manifest", ex);
+		} finally {
+			FileHandle.closeQuietly(reader);
+		}
+		return index;
+	}
+
+	/** Returns the entry of the path, listing the directories on the way to it that weren't listed yet, or null if there is no
+	 * such asset. */
+	private Entry find (String path) {
+		Entry entry = entries.get(path);
+		if (entry != null || path.length() == 0) return entry;
+		int slash = path.lastIndexOf('/');
+		String parent = slash == -1 ? "" : path.substring(0, slash);
+		Entry parentEntry = find(parent);
+		// A parent that was listed already doesn't contain the path.
+		if (parentEntry == null || parentEntry.children != null) return null;
+		children(parent, parentEntry);
+		return entries.get(path);
+	}
+
+	/** Returns the children of the entry, listing them the first time. Asset directories are never empty, so an entry without
+	 * children is a file. */
+	private String[] children (String path, Entry entry) {
+		String[] children = entry.children;
+		if (children != null) return children;
+		synchronized (entry) {
+			if (entry.children != null) return entry.children;
+			try {
+				children = source == null ? null : source.list(path);
+			} catch (IOException ex) {
+				throw new RuntimeException("Error listing assets: " + path, ex);
+			}
+			if (children == null) children = EMPTY;
+			// The children are added before the entry is marked as listed, so find never misses them.
+			for (String name : children)
+				entries.putIfAbsent(path.length() == 0 ? name : path + '/' + name, new Entry(null));
+			entry.children = children;
+			return children;
+		}
+	}
+
+	/** Lists every directory under the path. Files with a known length are recognized without being listed. */
+	private void listAll (String path, Entry entry) {
+		if (entry.children == null && path.length() > 0 && length(path, entry) != -1) return;
+		for (String name : children(path, entry)) {
+			String child = path.length() == 0 ? name : path + '/' + name;
+			listAll(child, entries.get(child));
+		}
+	}
+
+	/** Writes the index in the format read by {@link #read(InputStream, Source)}, with the length of every file. Lists the
+	 * directories that weren't listed yet. The stream is not closed. */
+	public void write (OutputStream output) throws IOException {
+		listAll("", entries.get(""));
+		Writer writer = new OutputStreamWriter(output, "UTF-8");
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			String[] children = entry.getValue().children;
+			if (entry.getKey().length() == 0 || (children != null && children.length > 0)) continue;
+			writer.write(entry.getKey());
+			long length = length(entry.getKey());
+			if (length != -1) {
+				writer.write('\t');
+				writer.write(Long.toString(length));
+			}
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/** @param path the path of the asset, with forward or back slashes. */
+	public boolean exists (String path) {
+		return find(normalize(path)) != null;
+	}
+
+	public boolean isDirectory (String path) {
+		path = normalize(path);
+		Entry entry = find(path);
+		// Directories have no length, so files whose length is known don't have to be listed.
+		if (entry == null || length(path, entry) != -1) return false;
+		return children(path, entry).length > 0;
+	}
+
+	/** @return the names of the children of the directory, empty if the path is a file or doesn't exist. The array must not be
+	 *         modified. */
+	public String[] list (String path) {
+		path = normalize(path);
+		Entry entry = find(path);
+		return entry == null ? EMPTY : children(path, entry);
+	}
+
+	/** @return the length of the file, or -1 if it is not a file or its length can't be determined without reading it. */
+	public long length (String path) {
+		path = normalize(path);
+		Entry entry = find(path);
+		return entry == null ? -1 : length(path, entry);
+	}
+
+	private long length (String path, Entry entry) {
+		String[] children = entry.children;
+		if (children != null && children.length > 0) return -1;
+		long length = entry.length;
+		if (length == Entry.UNKNOWN) entry.length = length = source == null ? -1 : source.length(path);
+		return length;
+	}
+
+	static private String normalize (String path) {
+		path = path.replace('\\', '/');
+		int start = 0, end = path.length();
+		while (start < end && path.charAt(start) == '/')
+			start++;
+		while (end > start && path.charAt(end - 1) == '/')
+			end--;
+		return path.substring(start, end);
+	}
+
+	static private class Entry {
+		static final long UNKNOWN = -2;
+
+		/** Empty for files, null until listed. */
+		volatile String[] children;
+		volatile long length = UNKNOWN;
+
+		Entry (String[] children) {
+			this.children = children;
+		}
+	}
+}
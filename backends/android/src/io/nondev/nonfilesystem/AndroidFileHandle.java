@@ -34,10 +34,11 @@ import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
-import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 
+import io.nondev.nonfilesystem.FileMetrics.Operation;
 import io.nondev.nonfilesystem.Files.FileType;
 
 /** @author mzechner
@@ -47,6 +48,10 @@ public class AndroidFileHandle extends FileHandle {
 		return ((AndroidFiles)files).getAssetManager();
 	}
 
+	protected AndroidAssetIndex assetIndex () {
+		return ((AndroidFiles)files).getAssetIndex();
+	}
+
 	public AndroidFileHandle (Files files, String fileName) {
 		super(files, fileName);
 	}
@@ -86,10 +91,21 @@ public class AndroidFileHandle extends FileHandle {
 		return new AndroidFileHandle(files, parent, type);
 	}
 
+	protected File resolve () {
+		if (type == FileType.Internal) return null;
+		return super.resolve();
+	}
+
+	protected FileChannel openChannel () {
+		if (type == FileType.Internal) return null;
+		return super.openChannel();
+	}
+
 	public InputStream read () {
 		if (type == FileType.Internal) {
+			long start = System.nanoTime();
 			try {
-				return assets().open(file.getPath());
+				return track(assets().open(file.getPath()), start);
 			} catch (IOException ex) {
 				throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
 			}
@@ -100,7 +116,7 @@ public class AndroidFileHandle extends FileHandle {
 	public FileHandle[] list () {
 		if (type == FileType.Internal) {
 			try {
-				String[] relativePaths = assets().list(file.getPath());
+				String[] relativePaths = assetIndex().list(file.getPath());
 				FileHandle[] handles = new FileHandle[relativePaths.length];
 				for (int i = 0, n = handles.length; i < n; i++)
 					handles[i] = new AndroidFileHandle(files, new File(file, relativePaths[i]), type);
@@ -115,7 +131,7 @@ public class AndroidFileHandle extends FileHandle {
 	public FileHandle[] list (FileFilter filter) {
 		if (type == FileType.Internal) {
 			try {
-				String[] relativePaths = assets().list(file.getPath());
+				String[] relativePaths = assetIndex().list(file.getPath());
 				FileHandle[] handles = new FileHandle[relativePaths.length];
 				int count = 0;
 				for (int i = 0, n = handles.length; i < n; i++) {
@@ -141,7 +157,7 @@ public class AndroidFileHandle extends FileHandle {
 	public FileHandle[] list (FilenameFilter filter) {
 		if (type == FileType.Internal) {
 			try {
-				String[] relativePaths = assets().list(file.getPath());
+				String[] relativePaths = assetIndex().list(file.getPath());
 				FileHandle[] handles = new FileHandle[relativePaths.length];
 				int count = 0;
 				for (int i = 0, n = handles.length; i < n; i++) {
@@ -166,7 +182,7 @@ public class AndroidFileHandle extends FileHandle {
 	public FileHandle[] list (String suffix) {
 		if (type == FileType.Internal) {
 			try {
-				String[] relativePaths = assets().list(file.getPath());
+				String[] relativePaths = assetIndex().list(file.getPath());
 				FileHandle[] handles = new FileHandle[relativePaths.length];
 				int count = 0;
 				for (int i = 0, n = handles.length; i < n; i++) {
@@ -189,29 +205,17 @@ public class AndroidFileHandle extends FileHandle {
 	}
 
 	public boolean isDirectory () {
-		if (type == FileType.Internal) {
-			try {
-				return assets().list(file.getPath()).length > 0;
-			} catch (IOException ex) {
-				return false;
-			}
-		}
+		if (type == FileType.Internal) return assetIndex().isDirectory(file.getPath());
 		return super.isDirectory();
 	}
 
 	public boolean exists () {
 		if (type == FileType.Internal) {
-			String fileName = file.getPath();
+			long start = begin(Operation.Exists);
 			try {
-				assets().open(fileName).close(); // Check if file exists.
-				return true;
-			} catch (Exception ex) {
-				// This is SUPER slow! but we need it for directories.
-				try {
-					return assets().list(fileName).length > 0;
-				} catch (Exception ignored) {
-				}
-				return false;
+				return assetIndex().exists(file.getPath());
+			} finally {
+				record(Operation.Exists, 0, start);
 			}
 		}
 		return super.exists();
@@ -219,20 +223,9 @@ public class AndroidFileHandle extends FileHandle {
 
 	public long length () {
 		if (type == FileType.Internal) {
-			AssetFileDescriptor fileDescriptor = null;
-			try {
-				fileDescriptor = assets().openFd(file.getPath());
-				return fileDescriptor.getLength();
-			} catch (IOException ignored) {
-			} finally {
-				if (fileDescriptor != null) {
-					try {
-						fileDescriptor.close();
-					} catch (IOException e) {
-					}
-					;
-				}
-			}
+			long length = assetIndex().length(file.getPath());
+			if (length != -1) return length;
+			// Compressed assets have to be read to find out their length.
 		}
 		return super.length();
 	}
@@ -242,7 +235,10 @@ public class AndroidFileHandle extends FileHandle {
 	}
 
 	public File file () {
-		if (type == FileType.Local) return new File(files.getLocalStoragePath(), file.getPath());
+		if (type == FileType.Local) {
+			if (resolvedFile == null) resolvedFile = new File(files.getLocalStoragePath(), file.getPath());
+			return resolvedFile;
+		}
 		return super.file();
 	}
 
@@ -29,6 +29,8 @@
 
 package io.nondev.nonfilesystem;
 
+import java.util.Collection;
+
 import android.content.res.AssetManager;
 import android.os.Environment;
 
@@ -38,6 +40,8 @@ public class AndroidFiles implements Files {
 	protected final String sdcard = Environment.getExternalStorageDirectory().getAbsolutePath() + "/";
 	protected final String localpath;
 	protected final AssetManager assets;
+	private volatile FileMetrics metrics = FileMetrics.NONE;
+	private AndroidAssetIndex assetIndex;
 
 	public AndroidFiles (AssetManager assets) {
 		this.assets = assets;
@@ -53,6 +57,19 @@ public class AndroidFiles implements Files {
 		return assets;
 	}
 
+	/** Returns the index {@link FileType#Internal} file handles use instead of asking the asset manager. Unless one was set, the
+	 * directories of the asset tree are listed the first time they are looked up. */
+	public synchronized AndroidAssetIndex getAssetIndex () {
+		if (assetIndex == null) assetIndex = AndroidAssetIndex.of(assets);
+		return assetIndex;
+	}
+
+	/** Sets the index of the assets, for example one read from a manifest generated at build time with
+	 * {@link AndroidAssetIndex#read(java.io.InputStream, AndroidAssetIndex.Source)}. */
+	public synchronized void setAssetIndex (AndroidAssetIndex assetIndex) {
+		this.assetIndex = assetIndex;
+	}
+
 	@Override
 	public FileHandle getFileHandle (String path, FileType type) {
 		return new AndroidFileHandle(this, path, type);
@@ -102,4 +119,19 @@ public class AndroidFiles implements Files {
 	public boolean isLocalStorageAvailable () {
 		return true;
 	}
+
+	@Override
+	public FileMetrics getMetrics () {
+		return metrics;
+	}
+
+	@Override
+	public void setMetrics (FileMetrics metrics) {
+		this.metrics = metrics == null ? FileMetrics.NONE : metrics;
+	}
+
+	@Override
+	public FileArena loadArena (Collection<FileHandle> files) {
+		return FileArena.load(files);
+	}
 }
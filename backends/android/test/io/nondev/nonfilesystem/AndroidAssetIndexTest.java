@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AndroidAssetIndexTest {
+	private StubSource source;
+
+	@Before
+	public void setUp () {
+		source = new StubSource();
+		source.directory("", "data", "icon.png");
+		source.directory("data", "levels", "readme.txt");
+		source.directory("data/levels", "1.json");
+		source.file("icon.png", 10);
+		// Compressed, so its length is unknown.
+		source.file("data/readme.txt", -1);
+		source.file("data/levels/1.json", 5);
+	}
+
+	@Test
+	public void answersFromSource () {
+		AndroidAssetIndex index = AndroidAssetIndex.of(source);
+		assertTrue(index.exists("icon.png"));
+		assertTrue(index.exists("/data/levels/"));
+		assertTrue(index.exists("data\\levels\\1.json"));
+		assertFalse(index.exists("missing.png"));
+		assertFalse(index.exists("icon.png/child"));
+		assertFalse(index.exists("missing/child"));
+		assertTrue(index.isDirectory("data"));
+		assertFalse(index.isDirectory("icon.png"));
+		assertFalse(index.isDirectory("data/readme.txt"));
+		assertArrayEquals(new String[] {"levels", "readme.txt"}, index.list("data"));
+		assertArrayEquals(new String[0], index.list("icon.png"));
+		assertEquals(10, index.length("icon.png"));
+		assertEquals(-1, index.length("data/readme.txt"));
+		assertEquals(-1, index.length("data"));
+	}
+
+	@Test
+	public void listsOnlyDirectoriesOnTheWay () {
+		AndroidAssetIndex index = AndroidAssetIndex.of(source);
+		assertTrue(index.exists("icon.png"));
+		assertEquals(1, source.listed.size());
+		assertTrue(index.exists("data/levels/1.json"));
+		assertEquals(3, source.listed.size());
+		assertFalse(index.isDirectory("data/levels/1.json"));
+		assertEquals(5, index.length("data/levels/1.json"));
+		assertEquals(2, index.list("").length);
+		assertFalse(source.listed.contains("icon.png"));
+		assertFalse(source.listed.contains("data/levels/1.json"));
+		assertEquals(3, source.listed.size());
+	}
+
+	@Test
+	public void listsEveryDirectoryOnce () {
+		AndroidAssetIndex index = AndroidAssetIndex.of(source);
+		for (int i = 0; i < 3; i++) {
+			index.list("data/levels");
+			index.isDirectory("data/readme.txt");
+			index.exists("data/missing");
+		}
+		assertEquals(4, source.listed.size());
+		assertEquals(1, count(source.listed, "data/readme.txt"));
+		assertEquals(1, count(source.listed, "data"));
+	}
+
+	@Test
+	public void manifestRoundTrip () throws IOException {
+		ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+		AndroidAssetIndex.of(source).write(manifest);
+		// The only file listed is the one without a known length.
+		assertFalse(source.listed.contains("icon.png"));
+		assertFalse(source.listed.contains("data/levels/1.json"));
+
+		source.listed.clear();
+		AndroidAssetIndex index = AndroidAssetIndex.read(new ByteArrayInputStream(manifest.toByteArray()), source);
+		assertTrue(index.exists("data/levels/1.json"));
+		assertFalse(index.exists("data/missing"));
+		assertTrue(index.isDirectory("data/levels"));
+		assertFalse(index.isDirectory("data/readme.txt"));
+		assertEquals(2, index.list("data").length);
+		assertEquals(10, index.length("icon.png"));
+		assertEquals(5, index.length("data/levels/1.json"));
+		assertEquals(0, source.listed.size());
+	}
+
+	static private int count (List<String> paths, String path) {
+		int count = 0;
+		for (String listed : paths)
+			if (listed.equals(path)) count++;
+		return count;
+	}
+
+	/** Asset tree kept in memory, recording every path that is listed. */
+	static private class StubSource implements AndroidAssetIndex.Source {
+		final Map<String, String[]> directories = new HashMap<String, String[]>();
+		final Map<String, Long> lengths = new HashMap<String, Long>();
+		final List<String> listed = new ArrayList<String>();
+
+		void directory (String path, String... children) {
+			directories.put(path, children);
+		}
+
+		void file (String path, long length) {
+			lengths.put(path, length);
+		}
+
+		@Override
+		public synchronized String[] list (String path) {
+			listed.add(path);
+			String[] children = directories.get(path);
+			return children == null ? new String[0] : children.clone();
+		}
+
+		@Override
+		public long length (String path) {
+			Long length = lengths.get(path);
+			return length == null ? -1 : length;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Pool of direct buffers shared by the {@link FilePublisher} and {@link FileSubscriber}, so streaming many files doesn't
+ * allocate a new direct buffer for every one. Capacities are rounded up to a power of two and every capacity keeps at most
+ * {@link #MAX_POOLED} free buffers. */
+final class BufferPool {
+	static final int MAX_POOLED = 32;
+	static private final int MIN_CAPACITY = 4096;
+	static private final ConcurrentHashMap<Integer, Pool> pools = new ConcurrentHashMap<Integer, Pool>();
+
+	private BufferPool () {
+	}
+
+	/** @return a cleared buffer with at least the requested capacity, with its limit set to the requested size. */
+	static ByteBuffer obtain (int size) {
+		int capacity = capacity(size);
+		ByteBuffer buffer = pool(capacity).free.poll();
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(capacity);
+		else
+			pool(capacity).count.decrementAndGet();
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/** Returns a buffer obtained from {@link #obtain(int)} to the pool. The buffer must not be used afterwards. */
+	static void free (ByteBuffer buffer) {
+		Pool pool = pool(buffer.capacity());
+		if (pool.count.incrementAndGet() > MAX_POOLED) {
+			pool.count.decrementAndGet();
+			return;
+		}
+		pool.free.offer(buffer);
+	}
+
+	static private int capacity (int size) {
+		if (size <= MIN_CAPACITY) return MIN_CAPACITY;
+		int capacity = Integer.highestOneBit(size);
+		return capacity == size ? capacity : capacity >= 1 << 30 ? size : capacity << 1;
+	}
+
+	static private Pool pool (int capacity) {
+		Pool pool = pools.get(capacity);
+		if (pool == null) {
+			Pool created = new Pool();
+			pool = pools.putIfAbsent(capacity, created);
+			if (pool == null) pool = created;
+		}
+		return pool;
+	}
+
+	static private class Pool {
+		final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+		final AtomicInteger count = new AtomicInteger();
+	}
+}
@@ -29,27 +29,60 @@
 
 package io.nondev.nonfilesystem;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import io.nondev.nonfilesystem.FileMetrics.Operation;
 import io.nondev.nonfilesystem.Files.FileType;
 
 /** @author mzechner
  * @author Nathan Sweet */
 public final class DesktopFileHandle extends FileHandle {
+	/** Attributes read by {@link #listWithAttributes()}, null for handles that query the filesystem. */
+	private final BasicFileAttributes attributes;
+
 	public DesktopFileHandle (Files files, String fileName) {
 		super(files, fileName);
+		attributes = null;
 	}
 
 	public DesktopFileHandle (Files files, File file) {
 		super(files, file);
+		attributes = null;
 	}
 
 	public DesktopFileHandle (Files files, String fileName, FileType type) {
 		super(files, fileName, type);
+		attributes = null;
 	}
 
 	public DesktopFileHandle (Files files, File file, FileType type) {
 		super(files, file, type);
+		attributes = null;
+	}
+
+	DesktopFileHandle (Files files, File file, FileType type, BasicFileAttributes attributes) {
+		super(files, file, type);
+		this.attributes = attributes;
 	}
 
 	public FileHandle child (String name) {
@@ -74,8 +107,196 @@ public final class DesktopFileHandle extends FileHandle {
 	}
 
 	public File file () {
-		if (type == FileType.External) return new File(DesktopFiles.externalPath, file.getPath());
-		if (type == FileType.Local) return new File(DesktopFiles.localPath, file.getPath());
-		return file;
+		if (resolvedFile != null) return resolvedFile;
+		if (type == FileType.External)
+			resolvedFile = new File(DesktopFiles.externalPath, file.getPath());
+		else if (type == FileType.Local)
+			resolvedFile = new File(DesktopFiles.localPath, file.getPath());
+		else
+			return file;
+		return resolvedFile;
+	}
+
+	/** Replaces the file in one step on every platform, including Windows. */
+	protected void replaceWith (File source) throws IOException {
+		java.nio.file.Files.move(source.toPath(), file().toPath(), StandardCopyOption.ATOMIC_MOVE,
+			StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/** Returns the path of this file on the file system that holds it: the default file system for files on the filesystem, or
+	 * the zip file system of the jar for {@link FileType#Classpath} files and {@link FileType#Internal} and {@link FileType#Local}
+	 * files that are only found on the classpath. Operations on the path go straight to that file system, so channels and copies
+	 * use its zero-copy transfers. {@link FilesFileSystemProvider} exposes whole {@link Files} instances instead.
+	 * @throws RuntimeException if this is a {@link FileType#Classpath} file that doesn't exist, or that is in a classpath entry
+	 *            other than a directory or jar. */
+	public Path toPath () {
+		return PathMapping.toPath(this);
+	}
+
+	/** Returns the lines of this file using the default charset, see {@link #lines(Charset)}. */
+	public Stream<String> lines () {
+		return lines(Charset.defaultCharset());
+	}
+
+	/** Returns a lazily populated stream of the lines of this file. Files on the filesystem encoded in UTF-8, ISO-8859-1 or
+	 * US-ASCII are split at line boundaries when the stream is {@link Stream#parallel() parallel}, so huge files are read by
+	 * multiple threads at once. The stream has to be closed to release the file.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public Stream<String> lines (Charset charset) {
+		final FileChannel channel = LineSpliterator.isSplittable(charset) ? openChannel() : null;
+		if (channel == null) {
+			final BufferedReader reader = new BufferedReader(reader(charset.name()));
+			return reader.lines().onClose(new Runnable() {
+				@Override
+				public void run () {
+					closeQuietly(reader);
+				}
+			});
+		}
+		final long start = System.nanoTime();
+		final long size;
+		try {
+			size = channel.size();
+		} catch (IOException ex) {
+			closeQuietly(channel);
+			throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
+		}
+		return StreamSupport.stream(new LineSpliterator(channel, charset, 0, size), false).onClose(new Runnable() {
+			@Override
+			public void run () {
+				closeQuietly(channel);
+				record(Operation.Read, size, start);
+			}
+		});
+	}
+
+	/** Returns a publisher of the contents of this file in chunks, read on the {@link ForkJoinPool#commonPool() common pool},
+	 * see {@link #publisher(int, Executor)}. */
+	public Flow.Publisher<ByteBuffer> publisher (int chunkSize) {
+		return publisher(chunkSize, callbackExecutor());
+	}
+
+	/** Returns a publisher of the contents of this file in chunks of the specified size, the last one possibly shorter. Every
+	 * subscriber reads the file from the start on the executor, and no more chunks are read than it requested; only classpath
+	 * files are read a chunk ahead, to find their end. Subscribers are completed right after the last chunk. The buffer passed to
+	 * {@link Flow.Subscriber#onNext(Object)} is pooled and reused for the next chunk, so it is only valid until that call
+	 * returns. Errors opening or reading the file are signalled through {@link Flow.Subscriber#onError(Throwable)}. */
+	public Flow.Publisher<ByteBuffer> publisher (int chunkSize, Executor executor) {
+		return new FilePublisher(this, chunkSize, executor);
+	}
+
+	/** Returns a subscriber writing to this file on the {@link ForkJoinPool#commonPool() common pool}, see
+	 * {@link #subscriber(boolean, Executor)}. */
+	public FileSubscriber subscriber (boolean append) {
+		return subscriber(append, callbackExecutor());
+	}
+
+	/** Returns the executor for publishers and subscribers that weren't given one. They call user code, so they can't run on the
+	 * shared pool of the file system: operations that wait for that pool would never finish if they were called from callbacks
+	 * occupying all of its threads. Like {@link java.util.concurrent.SubmissionPublisher}, a thread is started per task if the
+	 * common pool doesn't run tasks in parallel. */
+	static private Executor callbackExecutor () {
+		if (ForkJoinPool.getCommonPoolParallelism() > 1) return ForkJoinPool.commonPool();
+		return new Executor() {
+			@Override
+			public void execute (Runnable task) {
+				new Thread(task).start();
+			}
+		};
+	}
+
+	/** Returns a subscriber writing the chunks it receives to this file on the executor, requesting more only as fast as they are
+	 * written. The file is opened when the first chunk or the completion arrives. Parent directories will be created if
+	 * necessary. Each subscriber can only subscribe once.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended. */
+	public FileSubscriber subscriber (boolean append, Executor executor) {
+		return new FileSubscriber(this, append, executor);
+	}
+
+	/** Follows this file from the position with a poll interval of one second, see
+	 * {@link #follow(long, long, TimeUnit, Consumer)}. */
+	public FileFollower follow (long startPosition, Consumer<ByteBuffer> consumer) {
+		return follow(startPosition, 1, TimeUnit.SECONDS, consumer);
+	}
+
+	/** Starts passing the bytes of this file from the position on to the consumer on a daemon thread, and everything appended to
+	 * it afterwards, until the returned follower is closed. The buffer passed to the consumer is reused for the next read, so it
+	 * is only valid until the call returns. Truncation and rotation of the file are detected, see {@link FileFollower}. Only
+	 * bytes the consumer returned from are counted in {@link FileFollower#getPosition()}, so resuming from it never skips any.
+	 * @param startPosition the position to start at, files shorter than that are read from the start.
+	 * @param pollInterval the longest time to wait for a change notification before checking the file anyway.
+	 * @throws RuntimeException if this file is a {@link FileType#Classpath} file. */
+	public FileFollower follow (long startPosition, long pollInterval, TimeUnit unit, Consumer<ByteBuffer> consumer) {
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot follow a classpath file: " + file);
+		return new FileFollower(this, file().toPath(), startPosition, unit.toMillis(pollInterval), consumer);
+	}
+
+	/** Returns the children of this directory like {@link #list()}, but reads the attributes of every child while listing. The
+	 * returned handles answer {@link #isDirectory()}, {@link #exists()}, {@link #length()} and {@link #lastModified()} from that
+	 * snapshot instead of asking the filesystem again, so rendering a directory with sizes and dates costs one stat per child
+	 * instead of three. The snapshot is never updated; handles derived from the returned ones, e.g. through {@link #child(String)},
+	 * query the filesystem again. Children that can't be read anymore are skipped. On the desktop, an
+	 * {@link FileType#Internal} handle to a directory on the classpath will return a zero length array.
+	 * @throws RuntimeException if this file is an {@link FileType#Classpath} file. */
+	public FileHandle[] listWithAttributes () {
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
+		long start = begin(Operation.List);
+		Path dir = file().toPath();
+		List<FileHandle> handles = new ArrayList<FileHandle>();
+		try (DirectoryStream<Path> children = java.nio.file.Files.newDirectoryStream(dir)) {
+			SecureDirectoryStream<Path> secure = children instanceof SecureDirectoryStream ? (SecureDirectoryStream<Path>)children : null;
+			for (Path child : children) {
+				Path name = child.getFileName();
+				BasicFileAttributes attributes;
+				try {
+					// Secure streams read the attributes relative to the open directory, without resolving the whole path again.
+					if (secure != null)
+						attributes = secure.getFileAttributeView(name, BasicFileAttributeView.class).readAttributes();
+					else
+						attributes = java.nio.file.Files.readAttributes(child, BasicFileAttributes.class);
+				} catch (IOException ex) {
+					continue;
+				}
+				File childFile = file.getPath().length() == 0 ? new File(name.toString()) : new File(file, name.toString());
+				handles.add(new DesktopFileHandle(files, childFile, type, attributes));
+			}
+		} catch (IOException ex) {
+			return new FileHandle[0];
+		} finally {
+			record(Operation.List, 0, start);
+		}
+		return handles.toArray(new FileHandle[handles.size()]);
+	}
+
+	/** Returns the attributes of this file, from the snapshot taken by {@link #listWithAttributes()} if this handle was returned
+	 * by it, otherwise read from the filesystem now.
+	 * @throws RuntimeException if the attributes could not be read. */
+	public BasicFileAttributes attributes () {
+		if (attributes != null) return attributes;
+		try {
+			return java.nio.file.Files.readAttributes(file().toPath(), BasicFileAttributes.class);
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading attributes: " + file + " (" + type + ")", ex);
+		}
+	}
+
+	public boolean isDirectory () {
+		if (attributes != null) return attributes.isDirectory();
+		return super.isDirectory();
+	}
+
+	public boolean exists () {
+		if (attributes != null) return true;
+		return super.exists();
+	}
+
+	public long length () {
+		if (attributes != null) return attributes.size();
+		return super.length();
+	}
+
+	public long lastModified () {
+		if (attributes != null) return attributes.lastModifiedTime().toMillis();
+		return super.lastModified();
 	}
 }
@@ -30,6 +30,8 @@
 package io.nondev.nonfilesystem;
 
 import java.io.File;
+import java.nio.file.FileSystem;
+import java.util.Collection;
 
 import io.nondev.nonfilesystem.Files.FileType;
 
@@ -38,6 +40,7 @@ import io.nondev.nonfilesystem.Files.FileType;
 public final class DesktopFiles implements Files {
 	static public final String externalPath = System.getProperty("user.home") + File.separator;
 	static public final String localPath = new File("").getAbsolutePath() + File.separator;
+	private volatile FileMetrics metrics = FileMetrics.NONE;
 	
 	@Override
 	public FileHandle getFileHandle (String fileName, FileType type) {
@@ -88,4 +91,24 @@ public final class DesktopFiles implements Files {
 	public boolean isLocalStorageAvailable () {
 		return true;
 	}
+
+	/** Returns a new java.nio.file view of these files, see {@link FilesFileSystemProvider}. */
+	public FileSystem newFileSystem () {
+		return FilesFileSystemProvider.newFileSystem(this);
+	}
+
+	@Override
+	public FileMetrics getMetrics () {
+		return metrics;
+	}
+
+	@Override
+	public void setMetrics (FileMetrics metrics) {
+		this.metrics = metrics == null ? FileMetrics.NONE : metrics;
+	}
+
+	@Override
+	public FileArena loadArena (Collection<FileHandle> files) {
+		return FileArena.load(files);
+	}
 }
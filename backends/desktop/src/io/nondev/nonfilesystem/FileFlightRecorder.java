@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** {@link FileMetrics} that emits a JDK Flight Recorder event for every file operation. The events are named
+ * <code>io.nondev.nonfilesystem.FileOperation</code>; they are enabled by default with a threshold of 1 ms, which recordings can
+ * change like for any other event, so any running recording picks up the slow operations. Every event starts when its operation
+ * starts and ends when it finishes, so it lines up with the other events of the thread on a timeline. Streams span from being
+ * opened to being closed.
+ * 
+ * <pre>
+ * files.setMetrics(new FileFlightRecorder(files.getMetrics()));
+ * recording.enable("io.nondev.nonfilesystem.FileOperation").withThreshold(Duration.ofNanos(100_000));
+ * </pre>
+ * 
+ * {@link Operation#Resolve} events show the time spent looking up internal and local files on the classpath, which the JDK's own
+ * file events don't cover. Operations that are started on one thread and finish on another, such as streams closed by another
+ * thread, can't be matched to their start and are emitted with a zero duration, so recordings only show them if the threshold is
+ * zero. */
+public class FileFlightRecorder implements FileMetrics {
+	/** Operations that weren't finished on the thread, never more than this many. */
+	static private final int MAX_DEPTH = 64;
+
+	private final FileMetrics delegate;
+	private final ThreadLocal<ArrayDeque<Span>> spans = new ThreadLocal<ArrayDeque<Span>>() {
+		@Override
+		protected ArrayDeque<Span> initialValue () {
+			return new ArrayDeque<Span>();
+		}
+	};
+
+	/** Creates a recorder that forwards nothing. */
+	public FileFlightRecorder () {
+		this(FileMetrics.NONE);
+	}
+
+	/** @param delegate receives every measurement too, so metrics that were installed keep working. May be null. */
+	public FileFlightRecorder (FileMetrics delegate) {
+		this.delegate = delegate == null ? FileMetrics.NONE : delegate;
+	}
+
+	public FileMetrics getDelegate () {
+		return delegate;
+	}
+
+	@Override
+	public void started (FileHandle file, Operation operation) {
+		delegate.started(file, operation);
+		begin(file, operation);
+	}
+
+	@Override
+	public void record (FileHandle file, Operation operation, long bytes, long nanos) {
+		delegate.record(file, operation, bytes, nanos);
+		end(file, operation, bytes);
+	}
+
+	@Override
+	public void streamOpened (FileHandle file, Operation operation) {
+		delegate.streamOpened(file, operation);
+		begin(file, operation);
+	}
+
+	@Override
+	public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos) {
+		delegate.streamClosed(file, operation, bytes, nanos);
+		end(file, operation, bytes);
+	}
+
+	private void begin (FileHandle file, Operation operation) {
+		FileOperationEvent event = new FileOperationEvent();
+		if (!event.isEnabled()) return;
+		ArrayDeque<Span> stack = spans.get();
+		// Operations that failed before they were recorded are never ended, the oldest span goes first.
+		if (stack.size() == MAX_DEPTH) stack.removeLast();
+		stack.push(new Span(file, operation, event));
+		event.begin();
+	}
+
+	private void end (FileHandle file, Operation operation, long bytes) {
+		FileOperationEvent event = null;
+		// Streams are closed in any order, so only the newest matching span is removed.
+		for (Iterator<Span> iter = spans.get().iterator(); iter.hasNext();) {
+			Span span = iter.next();
+			if (span.file == file && span.operation == operation) {
+				event = span.event;
+				iter.remove();
+				break;
+			}
+		}
+		if (event == null) {
+			event = new FileOperationEvent();
+			if (!event.isEnabled()) return;
+			event.begin();
+		}
+		event.end();
+		if (!event.shouldCommit()) return;
+		event.operation = operation.name();
+		event.path = file.path();
+		event.fileType = file.type().name();
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	static private class Span {
+		final FileHandle file;
+		final Operation operation;
+		final FileOperationEvent event;
+
+		Span (FileHandle file, Operation operation, FileOperationEvent event) {
+			this.file = file;
+			this.operation = operation;
+			this.event = event;
+		}
+	}
+
+	@Name("io.nondev.nonfilesystem.FileOperation")
+	@Label("File Operation")
+	@Description("Operation performed through a NonFileSystem file handle, for streams the time they were open")
+	@Category({"NonFileSystem"})
+	@StackTrace(true)
+	@Threshold("1 ms")
+	static class FileOperationEvent extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("Path")
+		String path;
+
+		@Label("File Type")
+		String fileType;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+}
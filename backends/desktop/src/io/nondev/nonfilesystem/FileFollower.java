@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Follows a file as it grows, passing every byte appended to it to a consumer, like <code>tail -F</code>. The file is read on a
+ * daemon thread until the follower is closed or the consumer throws. When there is nothing left to read, the thread waits for a
+ * change notification for the directory of the file, or at most the poll interval, since notifications are missed or delayed
+ * on some filesystems and platforms.
+ * 
+ * If the file shrinks below the position, it was truncated and is read again from the start. If another file appears under its
+ * name, the old one was rotated: the rest of the old file is read, then the new file from the start. The file doesn't have to
+ * exist yet. {@link #getPosition()} can be saved to resume following with {@link DesktopFileHandle#follow(long, Consumer)}.
+ * 
+ * <pre>
+ * FileFollower follower = files.local("app.log").follow(savedPosition, chunk -&gt; ship(chunk));
+ * ...
+ * follower.close();
+ * savedPosition = follower.getPosition();
+ * </pre> */
+public final class FileFollower implements Closeable {
+	static private final int BUFFER_SIZE = 64 * 1024;
+	static private final AtomicInteger count = new AtomicInteger();
+
+	private final FileHandle file;
+	private final Path path;
+	private final long pollInterval;
+	private final Consumer<ByteBuffer> consumer;
+	private final Thread thread;
+	private volatile long position;
+	private volatile boolean closed;
+	private volatile Throwable error;
+	// Only touched by the following thread.
+	private WatchService service;
+	private FileChannel channel;
+	private Object fileKey;
+
+	FileFollower (FileHandle file, Path path, long startPosition, long pollInterval, Consumer<ByteBuffer> consumer) {
+		if (startPosition < 0) throw new IllegalArgumentException("startPosition cannot be < 0: " + startPosition);
+		if (pollInterval <= 0) throw new IllegalArgumentException("pollInterval must be > 0: " + pollInterval);
+		if (consumer == null) throw new IllegalArgumentException("consumer cannot be null.");
+		this.file = file;
+		this.path = path.toAbsolutePath();
+		this.pollInterval = pollInterval;
+		this.consumer = consumer;
+		position = startPosition;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				follow();
+			}
+		}, "nonfilesystem-follow-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public FileHandle file () {
+		return file;
+	}
+
+	/** @return the position in the current file up to which bytes were passed to the consumer. */
+	public long getPosition () {
+		return position;
+	}
+
+	/** @return whether the follower was closed or stopped because of an error. */
+	public boolean isClosed () {
+		return closed;
+	}
+
+	/** @return the exception thrown by the consumer or while reading that stopped the follower, or null. */
+	public Throwable getError () {
+		return error;
+	}
+
+	/** Stops following, waiting for the consumer to return if it is running. Does nothing if the follower is already closed. */
+	@Override
+	public void close () {
+		closed = true;
+		if (Thread.currentThread() == thread) return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void follow () {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			watch();
+			while (!closed) {
+				if (channel == null && !open()) {
+					await();
+					continue;
+				}
+				buffer.clear();
+				long start = System.nanoTime();
+				int count = channel.read(buffer, position);
+				if (count > 0) {
+					// The consumer's time isn't part of the read.
+					file.record(Operation.Read, count, start);
+					buffer.flip();
+					consumer.accept(buffer);
+					position += count;
+					continue;
+				}
+				if (!changed()) await();
+			}
+		} catch (Throwable ex) {
+			// Interrupting a read to close the follower closes the channel as well.
+			if (!closed) error = ex;
+		} finally {
+			closed = true;
+			FileHandle.closeQuietly(channel);
+			FileHandle.closeQuietly(service);
+		}
+	}
+
+	/** Registers for notifications about the directory of the file, polling only if that isn't possible. */
+	private void watch () {
+		try {
+			service = path.getFileSystem().newWatchService();
+			path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException | UnsupportedOperationException ex) {
+			FileHandle.closeQuietly(service);
+			service = null;
+		}
+	}
+
+	/** Opens the file, starting over if it is shorter than the position.
+	 * @return whether the file exists. */
+	private boolean open () throws IOException {
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException ex) {
+			return false;
+		}
+		fileKey = fileKey(java.nio.file.Files.readAttributes(path, BasicFileAttributes.class));
+		if (channel.size() < position) position = 0;
+		return true;
+	}
+
+	/** Called when the end of the file was reached, switches to a new file under the same name or to the start of a truncated
+	 * file.
+	 * @return whether there may be more to read. */
+	private boolean changed () throws IOException {
+		if (channel.size() < position) {
+			position = 0;
+			return true;
+		}
+		BasicFileAttributes attributes;
+		try {
+			attributes = java.nio.file.Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException ex) {
+			// Moved away, the new file isn't there yet. Bytes still appended to the old one are read meanwhile.
+			return false;
+		}
+		if (fileKey.equals(fileKey(attributes))) return false;
+		// Anything written to the old file between the last read and now would be lost otherwise.
+		if (channel.size() > position) return true;
+		FileHandle.closeQuietly(channel);
+		channel = null;
+		position = 0;
+		return true;
+	}
+
+	/** @return the identity of the file, its creation time on filesystems without file keys. */
+	static private Object fileKey (BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		return key != null ? key : attributes.creationTime();
+	}
+
+	/** Waits for a change in the directory of the file or the poll interval to pass. */
+	private void await () throws InterruptedException {
+		if (service == null) {
+			Thread.sleep(pollInterval);
+			return;
+		}
+		WatchKey key;
+		try {
+			key = service.poll(pollInterval, TimeUnit.MILLISECONDS);
+		} catch (ClosedWatchServiceException ex) {
+			service = null;
+			return;
+		}
+		if (key == null) return;
+		key.pollEvents();
+		if (!key.reset()) {
+			// The directory itself is gone, keep polling until it comes back.
+			FileHandle.closeQuietly(service);
+			service = null;
+		}
+	}
+}
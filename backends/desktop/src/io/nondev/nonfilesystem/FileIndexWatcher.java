@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keeps a {@link FileIndex} up to date from filesystem change notifications. Every directory of the indexed tree is watched;
+ * created files and directories are added to the index, deleted ones removed. Symbolic links to directories are not followed,
+ * so changes under them are not seen. If the platform drops notifications, the whole index is refreshed. Notifications are
+ * processed on a daemon thread until the watcher is closed.
+ * 
+ * <pre>
+ * FileIndex index = new FileIndex(files.absolute("assets"));
+ * FileIndexWatcher watcher = new FileIndexWatcher(index);
+ * FileHandle[] textures = index.findByExtension("png", files.absolute("assets/textures"));
+ * </pre> */
+public class FileIndexWatcher implements Closeable {
+	private final FileIndex index;
+	private final Path rootPath;
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+	private final Thread thread;
+
+	/** Starts watching the tree of the index.
+	 * @throws RuntimeException if the root is not a directory on the filesystem or could not be watched. */
+	public FileIndexWatcher (FileIndex index) {
+		this.index = index;
+		FileHandle root = index.root();
+		if (!root.file().isDirectory()) throw new RuntimeException("Cannot watch a directory that is not on the filesystem: " + root);
+		rootPath = root.file().toPath().toAbsolutePath();
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			registerTree(rootPath);
+		} catch (IOException ex) {
+			throw new RuntimeException("Error watching directory: " + root, ex);
+		}
+		// Files created between listing the tree and registering the watches would be missed otherwise.
+		index.refresh(root);
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				process();
+			}
+		}, "nonfilesystem-index-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops watching, the index is left in its current state. */
+	@Override
+	public void close () {
+		try {
+			service.close();
+		} catch (IOException ignored) {
+		}
+		thread.interrupt();
+	}
+
+	private void process () {
+		while (true) {
+			WatchKey key;
+			try {
+				key = service.take();
+			} catch (InterruptedException ex) {
+				return;
+			} catch (ClosedWatchServiceException ex) {
+				return;
+			}
+			Path dir = keys.get(key);
+			if (dir != null) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					try {
+						handle(dir, event);
+					} catch (RuntimeException ignored) {
+						// The file disappeared again before it could be listed, the delete notification will follow.
+					}
+				}
+			}
+			if (!key.reset()) keys.remove(key);
+		}
+	}
+
+	private void handle (Path dir, WatchEvent<?> event) {
+		WatchEvent.Kind<?> kind = event.kind();
+		if (kind == StandardWatchEventKinds.OVERFLOW) {
+			try {
+				registerTree(rootPath);
+			} catch (IOException ignored) {
+			}
+			index.refresh(index.root());
+			return;
+		}
+		Path path = dir.resolve((Path)event.context());
+		FileHandle file = handle(path);
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+			if (java.nio.file.Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				try {
+					registerTree(path);
+				} catch (IOException ignored) {
+				}
+			}
+			index.add(file);
+		} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			index.remove(file);
+		}
+	}
+
+	private FileHandle handle (Path path) {
+		return index.root().child(rootPath.relativize(path).toString().replace('\\', '/'));
+	}
+
+	private void registerTree (Path dir) throws IOException {
+		keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE), dir);
+		try (DirectoryStream<Path> children = java.nio.file.Files.newDirectoryStream(dir)) {
+			for (Path child : children)
+				if (java.nio.file.Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) registerTree(child);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Publishes the contents of a file as chunks. Every subscriber reads the file from the start on the executor, and only as many
+ * chunks are read as it requested, except that files that aren't on the filesystem are read a chunk ahead to find their end.
+ * Subscribers are completed as soon as the last chunk was sent, without having to request more. Each subscription reads into one
+ * pooled buffer, so the buffer passed to {@link Flow.Subscriber#onNext(Object)} is only valid until that call returns and has to
+ * be copied to be kept. */
+final class FilePublisher implements Flow.Publisher<ByteBuffer> {
+	private final FileHandle file;
+	private final int chunkSize;
+	private final Executor executor;
+
+	FilePublisher (FileHandle file, int chunkSize, Executor executor) {
+		if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be > 0: " + chunkSize);
+		if (executor == null) throw new IllegalArgumentException("executor cannot be null.");
+		this.file = file;
+		this.chunkSize = chunkSize;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe (Flow.Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null) throw new NullPointerException("subscriber cannot be null.");
+		subscriber.onSubscribe(new ChunkSubscription(subscriber));
+	}
+
+	private final class ChunkSubscription implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile IllegalArgumentException invalidRequest;
+		// Only touched by the thread running the subscription.
+		private ReadableByteChannel channel;
+		private ByteBuffer buffer;
+		private boolean done;
+		/** Whether the buffer holds a chunk that was read before it was requested. */
+		private boolean ahead;
+		/** Whether the last read reached the end of the file. */
+		private boolean ended;
+		private long total, start;
+
+		ChunkSubscription (Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request (long n) {
+			if (n <= 0)
+				invalidRequest = new IllegalArgumentException("Requested chunks must be > 0: " + n);
+			else {
+				long current, next;
+				do {
+					current = demand.get();
+					next = current + n;
+					if (next < 0) next = Long.MAX_VALUE;
+				} while (!demand.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel () {
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule () {
+			if (pending.getAndIncrement() == 0) executor.execute(this);
+		}
+
+		@Override
+		public void run () {
+			// Requests made while the chunks are sent are picked up by another pass instead of another task.
+			int missed = 1;
+			do {
+				drain();
+				missed = pending.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain () {
+			if (done) return;
+			if (cancelled) {
+				finish();
+				return;
+			}
+			if (invalidRequest != null) {
+				finish();
+				subscriber.onError(invalidRequest);
+				return;
+			}
+			while (true) {
+				if (!ahead) {
+					if (demand.get() == 0) return;
+					if (!read()) return;
+					if (!buffer.hasRemaining()) {
+						complete();
+						return;
+					}
+				} else if (demand.get() == 0) return;
+				ahead = false;
+				total += buffer.remaining();
+				demand.decrementAndGet();
+				try {
+					subscriber.onNext(buffer);
+				} catch (Throwable ex) {
+					// A subscriber that throws has broken its contract, stop sending to it.
+					finish();
+					return;
+				}
+				if (cancelled) {
+					finish();
+					return;
+				}
+				if (ended) {
+					complete();
+					return;
+				}
+				// The chunk filled the buffer, so it may have been the last one. Finding out now completes the subscriber without
+				// waiting for it to request a chunk that doesn't exist.
+				if (channel instanceof FileChannel) {
+					try {
+						FileChannel fileChannel = (FileChannel)channel;
+						if (fileChannel.position() < fileChannel.size()) continue;
+					} catch (Throwable ex) {
+						finish();
+						subscriber.onError(ex);
+						return;
+					}
+				} else {
+					if (!read()) return;
+					ahead = buffer.hasRemaining();
+					if (ahead) continue;
+				}
+				complete();
+				return;
+			}
+		}
+
+		/** Reads the next chunk into the buffer and flips it, opening the file first.
+		 * @return false if reading failed, which was signalled to the subscriber. */
+		private boolean read () {
+			try {
+				if (channel == null) {
+					start = System.nanoTime();
+					channel = file.readChannel();
+					buffer = BufferPool.obtain(chunkSize);
+				}
+				buffer.clear().limit(chunkSize);
+				int count;
+				do
+					count = channel.read(buffer);
+				while (count != -1 && buffer.hasRemaining());
+				ended = count == -1;
+			} catch (Throwable ex) {
+				finish();
+				subscriber.onError(ex);
+				return false;
+			}
+			buffer.flip();
+			return true;
+		}
+
+		private void complete () {
+			finish();
+			file.record(Operation.Read, total, start);
+			subscriber.onComplete();
+		}
+
+		private void finish () {
+			done = true;
+			FileHandle.closeQuietly(channel);
+			if (buffer != null) BufferPool.free(buffer);
+			channel = null;
+			buffer = null;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Writes the chunks it receives to a file. Each chunk is copied into a pooled buffer when it arrives and written on the
+ * executor, so the publisher's thread never blocks on the disk. At most {@link #PREFETCH} chunks are requested ahead of the
+ * writes, which keeps the memory held by a slow disk bounded. {@link #completion()} completes with the number of bytes written
+ * once the publisher completed and everything was written, or exceptionally if either failed. */
+public final class FileSubscriber implements Flow.Subscriber<ByteBuffer> {
+	static public final int PREFETCH = 4;
+
+	private final FileHandle file;
+	private final boolean append;
+	private final Executor executor;
+	private final CompletableFuture<Long> completion = new CompletableFuture<Long>();
+	private final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Flow.Subscription subscription;
+	private volatile boolean done;
+	private volatile Throwable error;
+	// Only touched by the thread writing the chunks.
+	private FileChannel channel;
+	private boolean finished;
+	private long total, start;
+
+	FileSubscriber (FileHandle file, boolean append, Executor executor) {
+		if (executor == null) throw new IllegalArgumentException("executor cannot be null.");
+		this.file = file;
+		this.append = append;
+		this.executor = executor;
+	}
+
+	/** @return a future completed with the number of bytes written once the file is written and closed. */
+	public CompletableFuture<Long> completion () {
+		return completion;
+	}
+
+	@Override
+	public void onSubscribe (Flow.Subscription subscription) {
+		if (subscription == null) throw new NullPointerException("subscription cannot be null.");
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(PREFETCH);
+	}
+
+	@Override
+	public void onNext (ByteBuffer chunk) {
+		if (chunk == null) throw new NullPointerException("chunk cannot be null.");
+		ByteBuffer copy = BufferPool.obtain(chunk.remaining());
+		copy.put(chunk).flip();
+		chunks.offer(copy);
+		schedule();
+	}
+
+	@Override
+	public void onError (Throwable error) {
+		if (error == null) throw new NullPointerException("error cannot be null.");
+		this.error = error;
+		done = true;
+		schedule();
+	}
+
+	@Override
+	public void onComplete () {
+		done = true;
+		schedule();
+	}
+
+	private void schedule () {
+		if (pending.getAndIncrement() == 0) executor.execute(new Runnable() {
+			@Override
+			public void run () {
+				int missed = 1;
+				do {
+					drain();
+					missed = pending.addAndGet(-missed);
+				} while (missed != 0);
+			}
+		});
+	}
+
+	private void drain () {
+		if (finished) {
+			freeChunks();
+			return;
+		}
+		// Read before the queue, every chunk sent before the publisher finished is in the queue by then.
+		boolean done = this.done;
+		if (done && error != null && channel == null) {
+			// Don't create or truncate the file if the publisher failed before sending anything.
+			finished = true;
+			freeChunks();
+			completion.completeExceptionally(error);
+			return;
+		}
+		try {
+			if (channel == null) {
+				start = System.nanoTime();
+				channel = file.writeChannel(append);
+			}
+			ByteBuffer chunk;
+			while ((chunk = chunks.poll()) != null) {
+				try {
+					while (chunk.hasRemaining())
+						total += channel.write(chunk);
+				} finally {
+					BufferPool.free(chunk);
+				}
+				if (!done) subscription.request(1);
+			}
+			if (!done) return;
+			finished = true;
+			channel.close();
+		} catch (Throwable ex) {
+			finished = true;
+			FileHandle.closeQuietly(channel);
+			freeChunks();
+			subscription.cancel();
+			completion.completeExceptionally(ex);
+			return;
+		}
+		file.record(Operation.Write, total, start);
+		if (error != null)
+			completion.completeExceptionally(error);
+		else
+			completion.complete(total);
+	}
+
+	private void freeChunks () {
+		ByteBuffer chunk;
+		while ((chunk = chunks.poll()) != null)
+			BufferPool.free(chunk);
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** {@link FileSystem} over a {@link Files} instance, see {@link FilesFileSystemProvider}. The root directory contains one
+ * directory per file type, named like the type in lower case, and the path below it is the path of the file handle. */
+final class FilesFileSystem extends FileSystem {
+	private final FilesFileSystemProvider provider;
+	private final Files files;
+	private final String id;
+	private volatile boolean open = true;
+
+	FilesFileSystem (FilesFileSystemProvider provider, Files files, String id) {
+		this.provider = provider;
+		this.files = files;
+		this.id = id;
+	}
+
+	String id () {
+		return id;
+	}
+
+	Files files () {
+		return files;
+	}
+
+	/** @return the type of the absolute, normalized path, or null for the root directory.
+	 * @throws IllegalArgumentException if the first name is not a file type. */
+	static FileType type (FilesPath path) {
+		if (path.names().length == 0) return null;
+		String name = path.names()[0];
+		for (FileType type : FileType.values())
+			if (type.name().toLowerCase(Locale.ROOT).equals(name)) return type;
+		throw new IllegalArgumentException("Not a file type: " + name);
+	}
+
+	/** @return the file handle of the absolute, normalized path, or null for the root directory. */
+	FileHandle handle (FilesPath path) {
+		FileType type = type(path);
+		if (type == null) return null;
+		String[] names = path.names();
+		StringBuilder builder = new StringBuilder();
+		if (type == FileType.Absolute) builder.append('/');
+		for (int i = 1; i < names.length; i++) {
+			if (i > 1) builder.append('/');
+			builder.append(names[i]);
+		}
+		return files.getFileHandle(builder.toString(), type);
+	}
+
+	@Override
+	public FilesFileSystemProvider provider () {
+		return provider;
+	}
+
+	@Override
+	public void close () {
+		open = false;
+		provider.closed(this);
+	}
+
+	@Override
+	public boolean isOpen () {
+		return open;
+	}
+
+	/** The file system isn't read only as a whole, but {@link FileType#Classpath} and {@link FileType#Internal} files are. */
+	@Override
+	public boolean isReadOnly () {
+		return false;
+	}
+
+	@Override
+	public String getSeparator () {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories () {
+		return Collections.<Path> singletonList(new FilesPath(this, "/"));
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores () {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews () {
+		return Collections.singleton("basic");
+	}
+
+	@Override
+	public Path getPath (String first, String... more) {
+		if (more.length == 0) return new FilesPath(this, first);
+		StringBuilder builder = new StringBuilder(first);
+		for (String name : more) {
+			if (name.length() == 0) continue;
+			if (builder.length() > 0) builder.append('/');
+			builder.append(name);
+		}
+		return new FilesPath(this, builder.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher (String syntaxAndPattern) {
+		int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) throw new IllegalArgumentException("Expected syntax:pattern, got: " + syntaxAndPattern);
+		String syntax = syntaxAndPattern.substring(0, colon), pattern = syntaxAndPattern.substring(colon + 1);
+		final Pattern regex;
+		if (syntax.equalsIgnoreCase("regex"))
+			regex = Pattern.compile(pattern);
+		else if (syntax.equalsIgnoreCase("glob"))
+			regex = Pattern.compile(globToRegex(pattern));
+		else
+			throw new UnsupportedOperationException("Syntax not supported: " + syntax);
+		return new PathMatcher() {
+			@Override
+			public boolean matches (Path path) {
+				return regex.matcher(path.toString()).matches();
+			}
+		};
+	}
+
+	/** Converts a glob to a regular expression, see {@link FileSystem#getPathMatcher(String)}. */
+	static String globToRegex (String glob) {
+		StringBuilder regex = new StringBuilder("^");
+		boolean group = false;
+		for (int i = 0, n = glob.length(); i < n; i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < n && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else
+					regex.append("[^/]*");
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '{':
+				regex.append("(?:");
+				group = true;
+				break;
+			case '}':
+				regex.append(')');
+				group = false;
+				break;
+			case ',':
+				regex.append(group ? "|" : ",");
+				break;
+			case '[':
+				int end = glob.indexOf(']', i + 1);
+				if (end == -1) throw new IllegalArgumentException("Missing ']' in glob: " + glob);
+				String set = glob.substring(i + 1, end);
+				if (set.startsWith("!")) set = "^" + set.substring(1);
+				regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+				i = end;
+				break;
+			case '\\':
+				if (i + 1 < n) regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+				break;
+			default:
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.append('$').toString();
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService () {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService () {
+		throw new UnsupportedOperationException("Watching is not supported, use the path of toPath() instead.");
+	}
+}
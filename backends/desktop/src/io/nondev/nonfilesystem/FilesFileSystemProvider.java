@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Exposes a {@link Files} instance as a {@link FileSystem}, so code written against java.nio.file can work with every file
+ * type, including {@link FileType#Classpath} and {@link FileType#Internal} files:
+ * 
+ * <pre>
+ * FileSystem fileSystem = FilesFileSystemProvider.newFileSystem(files);
+ * try (Stream&lt;Path&gt; paths = java.nio.file.Files.walk(fileSystem.getPath("/internal/data"))) {
+ * 	...
+ * }
+ * </pre>
+ * 
+ * The root directory contains one directory per file type, named like the type in lower case. Below it, paths are resolved the
+ * same way as the file handles with that path, see {@link DesktopFileHandle#toPath()}, and every operation is passed on to the
+ * file system holding the file: the default file system, or the zip file system of a jar on the classpath. Channels, copies and
+ * attributes therefore come straight from that file system, including its zero-copy transfers. Writing
+ * {@link FileType#Classpath} and {@link FileType#Internal} files is denied like it is for file handles. */
+public final class FilesFileSystemProvider extends FileSystemProvider {
+	static public final String SCHEME = "nonfilesystem";
+
+	static private final AtomicInteger ids = new AtomicInteger();
+	static private volatile FilesFileSystemProvider instance;
+
+	private final Map<String, FilesFileSystem> fileSystems = new ConcurrentHashMap<String, FilesFileSystem>();
+
+	/** Called by {@link FileSystemProvider#installedProviders()}, which finds the provider through
+	 * <code>META-INF/services/java.nio.file.spi.FileSystemProvider</code>. Use {@link #instance()} instead. */
+	public FilesFileSystemProvider () {
+	}
+
+	/** @return the installed provider, so the URIs of paths resolve through {@link java.nio.file.Paths#get(URI)}, or a provider
+	 *         of its own if the classes were loaded by a class loader the installed providers aren't looked up in. */
+	static public FilesFileSystemProvider instance () {
+		FilesFileSystemProvider provider = instance;
+		if (provider != null) return provider;
+		synchronized (FilesFileSystemProvider.class) {
+			if (instance == null) {
+				for (FileSystemProvider installed : FileSystemProvider.installedProviders()) {
+					if (installed instanceof FilesFileSystemProvider) {
+						instance = (FilesFileSystemProvider)installed;
+						break;
+					}
+				}
+				if (instance == null) instance = new FilesFileSystemProvider();
+			}
+			return instance;
+		}
+	}
+
+	/** Creates a new file system over the files, with a URI of its own until it is closed. */
+	static public FileSystem newFileSystem (Files files) {
+		FilesFileSystemProvider provider = instance();
+		String id = "fs" + ids.incrementAndGet();
+		FilesFileSystem fileSystem = new FilesFileSystem(provider, files, id);
+		provider.fileSystems.put(id, fileSystem);
+		return fileSystem;
+	}
+
+	void closed (FilesFileSystem fileSystem) {
+		fileSystems.remove(fileSystem.id());
+	}
+
+	@Override
+	public String getScheme () {
+		return SCHEME;
+	}
+
+	/** Creates a file system over the {@link Files} instance in the environment under the key "files". The authority of the URI,
+	 * if any, becomes the identifier of the file system. */
+	@Override
+	public FileSystem newFileSystem (URI uri, Map<String, ?> env) {
+		checkScheme(uri);
+		Object files = env.get("files");
+		if (!(files instanceof Files))
+			throw new IllegalArgumentException("The environment has to contain the Files under \"files\".");
+		String id = uri.getAuthority() != null ? uri.getAuthority() : "fs" + ids.incrementAndGet();
+		FilesFileSystem fileSystem = new FilesFileSystem(this, (Files)files, id);
+		if (fileSystems.putIfAbsent(id, fileSystem) != null) throw new FileSystemAlreadyExistsException(id);
+		return fileSystem;
+	}
+
+	@Override
+	public FileSystem getFileSystem (URI uri) {
+		checkScheme(uri);
+		FilesFileSystem fileSystem = uri.getAuthority() == null ? null : fileSystems.get(uri.getAuthority());
+		if (fileSystem == null) throw new FileSystemNotFoundException(uri.toString());
+		return fileSystem;
+	}
+
+	@Override
+	public Path getPath (URI uri) {
+		return getFileSystem(uri).getPath(uri.getPath());
+	}
+
+	static private void checkScheme (URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme()))
+			throw new IllegalArgumentException("URI scheme is not " + SCHEME + ": " + uri);
+	}
+
+	/** Returns the path of the file system that actually holds the file, or null for the root directory.
+	 * @param write whether the operation modifies the file. */
+	static private Path target (Path path, boolean write) throws IOException {
+		FilesPath absolute = (FilesPath)FilesPath.check(path).toAbsolutePath().normalize();
+		FileHandle handle;
+		try {
+			handle = absolute.getFileSystem().handle(absolute);
+		} catch (IllegalArgumentException ex) {
+			throw new NoSuchFileException(path.toString());
+		}
+		if (handle == null) {
+			if (write) throw new AccessDeniedException(path.toString(), null, "The root directory can't be modified.");
+			return null;
+		}
+		if (write && handle.type() == FileType.Classpath)
+			throw new AccessDeniedException(path.toString(), null, "Cannot write to a classpath file.");
+		if (write && handle.type() == FileType.Internal)
+			throw new AccessDeniedException(path.toString(), null, "Cannot write to an internal file.");
+		// Local files found on the classpath are still written to the filesystem.
+		if (write) return handle.file().toPath();
+		try {
+			return PathMapping.toPath(handle);
+		} catch (RuntimeException ex) {
+			throw new NoSuchFileException(path.toString());
+		}
+	}
+
+	static private boolean writes (Set<? extends OpenOption> options) {
+		for (OpenOption option : options)
+			if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND || option == StandardOpenOption.CREATE
+				|| option == StandardOpenOption.CREATE_NEW || option == StandardOpenOption.DELETE_ON_CLOSE) return true;
+		return false;
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel (Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+		throws IOException {
+		Path target = target(path, writes(options));
+		if (target == null) throw new IOException("Is a directory: " + path);
+		return target.getFileSystem().provider().newByteChannel(target, options, attrs);
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream (final Path dir, final DirectoryStream.Filter<? super Path> filter)
+		throws IOException {
+		Path target = target(dir, false);
+		if (target == null) {
+			List<Path> types = new ArrayList<Path>();
+			for (FileType type : FileType.values()) {
+				Path child = dir.resolve(type.name().toLowerCase(Locale.ROOT));
+				if (filter.accept(child)) types.add(child);
+			}
+			return new ListDirectoryStream(types);
+		}
+		final DirectoryStream<Path> children = java.nio.file.Files.newDirectoryStream(target);
+		return new DirectoryStream<Path>() {
+			@Override
+			public Iterator<Path> iterator () {
+				final Iterator<Path> iterator = children.iterator();
+				return new Iterator<Path>() {
+					private Path next;
+
+					@Override
+					public boolean hasNext () {
+						try {
+							while (next == null && iterator.hasNext()) {
+								Path child = dir.resolve(iterator.next().getFileName().toString());
+								if (filter.accept(child)) next = child;
+							}
+						} catch (IOException ex) {
+							throw new DirectoryIteratorException(ex);
+						}
+						return next != null;
+					}
+
+					@Override
+					public Path next () {
+						if (!hasNext()) throw new NoSuchElementException();
+						Path child = next;
+						next = null;
+						return child;
+					}
+				};
+			}
+
+			@Override
+			public void close () throws IOException {
+				children.close();
+			}
+		};
+	}
+
+	@Override
+	public void createDirectory (Path dir, FileAttribute<?>... attrs) throws IOException {
+		java.nio.file.Files.createDirectory(target(dir, true), attrs);
+	}
+
+	@Override
+	public void delete (Path path) throws IOException {
+		java.nio.file.Files.delete(target(path, true));
+	}
+
+	@Override
+	public void copy (Path source, Path target, CopyOption... options) throws IOException {
+		Path from = target(source, false);
+		if (from == null) throw new IOException("Cannot copy the root directory.");
+		java.nio.file.Files.copy(from, target(target, true), options);
+	}
+
+	@Override
+	public void move (Path source, Path target, CopyOption... options) throws IOException {
+		java.nio.file.Files.move(target(source, true), target(target, true), options);
+	}
+
+	@Override
+	public boolean isSameFile (Path path, Path path2) throws IOException {
+		if (path.equals(path2)) return true;
+		if (!(path2 instanceof FilesPath)) return false;
+		Path target = target(path, false), target2 = target(path2, false);
+		if (target == null || target2 == null) return target == target2;
+		return target.getFileSystem() == target2.getFileSystem() && java.nio.file.Files.isSameFile(target, target2);
+	}
+
+	@Override
+	public boolean isHidden (Path path) throws IOException {
+		Path target = target(path, false);
+		return target != null && java.nio.file.Files.isHidden(target);
+	}
+
+	@Override
+	public FileStore getFileStore (Path path) throws IOException {
+		Path target = target(path, false);
+		if (target == null) throw new UnsupportedOperationException("The root directory has no file store.");
+		return java.nio.file.Files.getFileStore(target);
+	}
+
+	@Override
+	public void checkAccess (Path path, AccessMode... modes) throws IOException {
+		boolean write = false;
+		for (AccessMode mode : modes)
+			if (mode == AccessMode.WRITE) write = true;
+		Path target = target(path, write);
+		if (target != null) target.getFileSystem().provider().checkAccess(target, modes);
+	}
+
+	@Override
+	public <V extends FileAttributeView> V getFileAttributeView (Path path, Class<V> type, LinkOption... options) {
+		try {
+			Path target = target(path, false);
+			return target == null ? null : java.nio.file.Files.getFileAttributeView(target, type, options);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes (Path path, Class<A> type, LinkOption... options) throws IOException {
+		Path target = target(path, false);
+		if (target != null) return java.nio.file.Files.readAttributes(target, type, options);
+		if (!type.isAssignableFrom(RootAttributes.class)) throw new UnsupportedOperationException(type.getName());
+		return (A)new RootAttributes();
+	}
+
+	@Override
+	public Map<String, Object> readAttributes (Path path, String attributes, LinkOption... options) throws IOException {
+		Path target = target(path, false);
+		if (target != null) return java.nio.file.Files.readAttributes(target, attributes, options);
+		RootAttributes root = new RootAttributes();
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("isDirectory", true);
+		map.put("isRegularFile", false);
+		map.put("isSymbolicLink", false);
+		map.put("isOther", false);
+		map.put("size", 0L);
+		map.put("lastModifiedTime", root.lastModifiedTime());
+		map.put("lastAccessTime", root.lastAccessTime());
+		map.put("creationTime", root.creationTime());
+		return map;
+	}
+
+	@Override
+	public void setAttribute (Path path, String attribute, Object value, LinkOption... options) throws IOException {
+		java.nio.file.Files.setAttribute(target(path, true), attribute, value, options);
+	}
+
+	/** Attributes of the root directory, which only exists in this file system. */
+	static private class RootAttributes implements BasicFileAttributes {
+		static private final FileTime EPOCH = FileTime.fromMillis(0);
+
+		public FileTime lastModifiedTime () {
+			return EPOCH;
+		}
+
+		public FileTime lastAccessTime () {
+			return EPOCH;
+		}
+
+		public FileTime creationTime () {
+			return EPOCH;
+		}
+
+		public boolean isRegularFile () {
+			return false;
+		}
+
+		public boolean isDirectory () {
+			return true;
+		}
+
+		public boolean isSymbolicLink () {
+			return false;
+		}
+
+		public boolean isOther () {
+			return false;
+		}
+
+		public long size () {
+			return 0;
+		}
+
+		public Object fileKey () {
+			return null;
+		}
+	}
+
+	static private class ListDirectoryStream implements DirectoryStream<Path> {
+		private final List<Path> paths;
+
+		ListDirectoryStream (List<Path> paths) {
+			this.paths = paths;
+		}
+
+		@Override
+		public Iterator<Path> iterator () {
+			return paths.iterator();
+		}
+
+		@Override
+		public void close () {
+		}
+	}
+}
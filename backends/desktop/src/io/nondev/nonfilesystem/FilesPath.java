@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Path of a {@link FilesFileSystem}. Names are separated by forward slashes; absolute paths start with the name of a file
+ * type, such as /internal/data/atlas.png or /absolute/home/user/file.txt. */
+final class FilesPath implements Path {
+	static private final String[] EMPTY = new String[0];
+
+	private final FilesFileSystem fileSystem;
+	private final boolean absolute;
+	private final String[] names;
+	private String string;
+
+	FilesPath (FilesFileSystem fileSystem, String path) {
+		this.fileSystem = fileSystem;
+		absolute = path.startsWith("/");
+		List<String> names = new ArrayList<String>();
+		for (String name : path.split("/"))
+			if (name.length() > 0) names.add(name);
+		this.names = names.toArray(new String[names.size()]);
+	}
+
+	private FilesPath (FilesFileSystem fileSystem, boolean absolute, String[] names) {
+		this.fileSystem = fileSystem;
+		this.absolute = absolute;
+		this.names = names;
+	}
+
+	/** @return the names of this path, without the root. */
+	String[] names () {
+		return names;
+	}
+
+	static FilesPath check (Path path) {
+		if (path == null) throw new NullPointerException();
+		if (!(path instanceof FilesPath)) throw new ProviderMismatchException();
+		return (FilesPath)path;
+	}
+
+	@Override
+	public FilesFileSystem getFileSystem () {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute () {
+		return absolute;
+	}
+
+	@Override
+	public Path getRoot () {
+		return absolute ? new FilesPath(fileSystem, true, EMPTY) : null;
+	}
+
+	@Override
+	public Path getFileName () {
+		return names.length == 0 ? null : new FilesPath(fileSystem, false, new String[] {names[names.length - 1]});
+	}
+
+	@Override
+	public Path getParent () {
+		if (names.length == 0 || names.length == 1 && !absolute) return null;
+		return new FilesPath(fileSystem, absolute, Arrays.copyOf(names, names.length - 1));
+	}
+
+	@Override
+	public int getNameCount () {
+		return names.length;
+	}
+
+	@Override
+	public Path getName (int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override
+	public Path subpath (int beginIndex, int endIndex) {
+		if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) throw new IllegalArgumentException();
+		return new FilesPath(fileSystem, false, Arrays.copyOfRange(names, beginIndex, endIndex));
+	}
+
+	@Override
+	public boolean startsWith (Path other) {
+		if (!(other instanceof FilesPath) || other.getFileSystem() != fileSystem) return false;
+		FilesPath path = (FilesPath)other;
+		if (path.absolute != absolute || path.names.length > names.length) return false;
+		for (int i = 0, n = path.names.length; i < n; i++)
+			if (!names[i].equals(path.names[i])) return false;
+		return true;
+	}
+
+	@Override
+	public boolean endsWith (Path other) {
+		if (!(other instanceof FilesPath) || other.getFileSystem() != fileSystem) return false;
+		FilesPath path = (FilesPath)other;
+		if (path.absolute) return equals(path);
+		if (path.names.length > names.length || path.names.length == 0 && names.length > 0) return false;
+		for (int i = 0, n = path.names.length, offset = names.length - n; i < n; i++)
+			if (!names[offset + i].equals(path.names[i])) return false;
+		return true;
+	}
+
+	@Override
+	public Path normalize () {
+		List<String> normalized = new ArrayList<String>(names.length);
+		for (String name : names) {
+			if (name.equals(".")) continue;
+			if (name.equals("..") && normalized.size() > 0 && !normalized.get(normalized.size() - 1).equals("..")) {
+				normalized.remove(normalized.size() - 1);
+				continue;
+			}
+			// Nothing is above the root.
+			if (name.equals("..") && absolute) continue;
+			normalized.add(name);
+		}
+		return new FilesPath(fileSystem, absolute, normalized.toArray(new String[normalized.size()]));
+	}
+
+	@Override
+	public Path resolve (Path other) {
+		FilesPath path = check(other);
+		if (path.absolute) return path;
+		if (path.names.length == 0) return this;
+		String[] resolved = Arrays.copyOf(names, names.length + path.names.length);
+		System.arraycopy(path.names, 0, resolved, names.length, path.names.length);
+		return new FilesPath(fileSystem, absolute, resolved);
+	}
+
+	@Override
+	public Path resolve (String other) {
+		return resolve(new FilesPath(fileSystem, other));
+	}
+
+	@Override
+	public Path relativize (Path other) {
+		FilesPath path = check(other);
+		if (path.absolute != absolute) throw new IllegalArgumentException("Both paths have to be absolute or relative.");
+		int common = 0;
+		while (common < names.length && common < path.names.length && names[common].equals(path.names[common]))
+			common++;
+		List<String> relative = new ArrayList<String>();
+		for (int i = common; i < names.length; i++)
+			relative.add("..");
+		for (int i = common; i < path.names.length; i++)
+			relative.add(path.names[i]);
+		return new FilesPath(fileSystem, false, relative.toArray(new String[relative.size()]));
+	}
+
+	@Override
+	public URI toUri () {
+		try {
+			return new URI(FilesFileSystemProvider.SCHEME, fileSystem.id(), toAbsolutePath().toString(), null);
+		} catch (URISyntaxException ex) {
+			throw new RuntimeException("Cannot convert to a URI: " + this, ex);
+		}
+	}
+
+	@Override
+	public Path toAbsolutePath () {
+		return absolute ? this : new FilesPath(fileSystem, true, names);
+	}
+
+	@Override
+	public Path toRealPath (LinkOption... options) throws IOException {
+		Path real = toAbsolutePath().normalize();
+		fileSystem.provider().checkAccess(real);
+		return real;
+	}
+
+	@Override
+	public WatchKey register (WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("Watching is not supported, use the path of toPath() instead.");
+	}
+
+	@Override
+	public int compareTo (Path other) {
+		return toString().compareTo(check(other).toString());
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		if (!(obj instanceof FilesPath)) return false;
+		FilesPath other = (FilesPath)obj;
+		return other.fileSystem == fileSystem && other.absolute == absolute && Arrays.equals(other.names, names);
+	}
+
+	@Override
+	public int hashCode () {
+		return toString().hashCode();
+	}
+
+	@Override
+	public String toString () {
+		if (string == null) {
+			StringBuilder builder = new StringBuilder();
+			if (absolute) builder.append('/');
+			for (int i = 0; i < names.length; i++) {
+				if (i > 0) builder.append('/');
+				builder.append(names[i]);
+			}
+			string = builder.toString();
+		}
+		return string;
+	}
+}
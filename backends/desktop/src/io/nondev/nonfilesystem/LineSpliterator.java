@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/** Spliterator over the lines of a byte range of a file. Every split cuts the range at a line feed close to its middle, so
+ * parallel streams process disjoint sets of whole lines. All splits read the shared channel with positional reads, files of any
+ * size can be split. Splitting is only possible for charsets that encode the line feed as a single 0x0A byte that can't occur
+ * inside other characters; for other charsets the spliterator reads the whole file sequentially. */
+class LineSpliterator implements Spliterator<String> {
+	/** Ranges smaller than this are not split any further. */
+	static private final long MIN_SPLIT = 1 << 20;
+	static private final int SCAN_SIZE = 8192;
+
+	private final FileChannel channel;
+	private final Charset charset;
+	private long position;
+	private final long end;
+	private BufferedReader reader;
+
+	LineSpliterator (FileChannel channel, Charset charset, long position, long end) {
+		this.channel = channel;
+		this.charset = charset;
+		this.position = position;
+		this.end = end;
+	}
+
+	static boolean isSplittable (Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+			|| charset.equals(StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public boolean tryAdvance (Consumer<? super String> action) {
+		String line = readLine();
+		if (line == null) return false;
+		action.accept(line);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining (Consumer<? super String> action) {
+		String line;
+		while ((line = readLine()) != null)
+			action.accept(line);
+	}
+
+	@Override
+	public Spliterator<String> trySplit () {
+		if (reader != null || !isSplittable(charset) || end - position < MIN_SPLIT) return null;
+		long split = nextLine(position + (end - position) / 2);
+		if (split <= position || split >= end) return null;
+		LineSpliterator prefix = new LineSpliterator(channel, charset, position, split);
+		position = split;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize () {
+		// Lines of an average log file are around 80 bytes long.
+		return reader == null ? (end - position) / 80 : Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics () {
+		return ORDERED | NONNULL;
+	}
+
+	private String readLine () {
+		try {
+			if (reader == null) reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(new RangeChannel()), charset));
+			return reader.readLine();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** @return the position right after the first line feed at or after the specified position, or {@link #end} if there is
+	 *         none. */
+	private long nextLine (long from) {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+		try {
+			while (from < end) {
+				buffer.clear();
+				if (end - from < SCAN_SIZE) buffer.limit((int)(end - from));
+				int count = channel.read(buffer, from);
+				if (count <= 0) break;
+				for (int i = 0; i < count; i++)
+					if (buffer.get(i) == '\n') return from + i + 1;
+				from += count;
+			}
+			return end;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** Reads the remaining range of this spliterator with positional reads. */
+	private class RangeChannel implements ReadableByteChannel {
+		private boolean open = true;
+
+		@Override
+		public int read (ByteBuffer dst) throws IOException {
+			if (position >= end) return -1;
+			int limit = dst.limit();
+			if (end - position < dst.remaining()) dst.limit(dst.position() + (int)(end - position));
+			try {
+				int count = channel.read(dst, position);
+				if (count > 0) position += count;
+				return count;
+			} finally {
+				dst.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen () {
+			return open;
+		}
+
+		@Override
+		public void close () {
+			open = false;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Maps file handles to paths of the file system that actually holds them, see {@link DesktopFileHandle#toPath()}. */
+final class PathMapping {
+	private PathMapping () {
+	}
+
+	/** @throws RuntimeException if the handle is a {@link FileType#Classpath} file that doesn't exist, or is in a classpath entry
+	 *            that is neither a directory nor a jar. */
+	static Path toPath (FileHandle handle) {
+		File file = handle.resolve();
+		if (file != null) return file.toPath();
+		FileType type = handle.type();
+		URL url = FileHandle.class.getResource("/" + handle.path());
+		if (url == null) {
+			// Paths of files that don't exist yet, or Internal files that don't exist at all.
+			if (type != FileType.Classpath) return handle.file().toPath();
+			throw new RuntimeException("File not found: " + handle + " (" + type + ")");
+		}
+		try {
+			URI uri = url.toURI();
+			if ("file".equals(uri.getScheme())) return Paths.get(uri);
+			if ("jar".equals(uri.getScheme())) {
+				String spec = uri.toString();
+				int separator = spec.indexOf("!/");
+				return jar(URI.create(spec.substring(0, separator))).getPath(spec.substring(separator + 1));
+			}
+		} catch (URISyntaxException ex) {
+			throw new RuntimeException("Cannot convert to a path: " + handle + " (" + type + ")", ex);
+		} catch (IOException ex) {
+			throw new RuntimeException("Cannot open the jar of: " + handle + " (" + type + ")", ex);
+		}
+		throw new RuntimeException("Cannot convert to a path: " + handle + " (" + type + "), found at " + url);
+	}
+
+	/** Returns the zip file system of the jar, opening it if nothing did yet. It is never closed, like the jar on the
+	 * classpath. */
+	static private synchronized FileSystem jar (URI uri) throws IOException {
+		try {
+			return FileSystems.getFileSystem(uri);
+		} catch (FileSystemNotFoundException ex) {
+			try {
+				return FileSystems.newFileSystem(uri, Collections.<String, Object> emptyMap());
+			} catch (FileSystemAlreadyExistsException ignored) {
+				return FileSystems.getFileSystem(uri);
+			}
+		}
+	}
+}
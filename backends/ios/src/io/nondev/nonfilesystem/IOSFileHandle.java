@@ -76,10 +76,16 @@ public class IOSFileHandle extends FileHandle {
 
 	@Override
 	public File file () {
-		if (type == FileType.Internal) return new File(IOSFiles.internalPath, file.getPath());
-		if (type == FileType.External) return new File(IOSFiles.externalPath, file.getPath());
-		if (type == FileType.Local) return new File(IOSFiles.localPath, file.getPath());
-		return file;
+		if (resolvedFile != null) return resolvedFile;
+		if (type == FileType.Internal)
+			resolvedFile = new File(IOSFiles.internalPath, file.getPath());
+		else if (type == FileType.External)
+			resolvedFile = new File(IOSFiles.externalPath, file.getPath());
+		else if (type == FileType.Local)
+			resolvedFile = new File(IOSFiles.localPath, file.getPath());
+		else
+			return file;
+		return resolvedFile;
 	}
 
 }
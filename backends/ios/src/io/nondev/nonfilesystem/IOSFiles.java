@@ -29,6 +29,8 @@
 
 package io.nondev.nonfilesystem;
 
+import java.util.Collection;
+
 import org.robovm.apple.foundation.NSBundle;
 
 public class IOSFiles implements Files {
@@ -39,6 +41,8 @@ public class IOSFiles implements Files {
 	static final String localPath = appDir + "/Library/local/";
 	static final String internalPath = NSBundle.getMainBundle().getBundlePath();
 
+	private volatile FileMetrics metrics = FileMetrics.NONE;
+
 	public IOSFiles () {
 		new FileHandle(this, externalPath).mkdirs();
 		new FileHandle(this, localPath).mkdirs();
@@ -93,4 +97,19 @@ public class IOSFiles implements Files {
 	public boolean isLocalStorageAvailable () {
 		return true;
 	}
+
+	@Override
+	public FileMetrics getMetrics () {
+		return metrics;
+	}
+
+	@Override
+	public void setMetrics (FileMetrics metrics) {
+		this.metrics = metrics == null ? FileMetrics.NONE : metrics;
+	}
+
+	@Override
+	public FileArena loadArena (Collection<FileHandle> files) {
+		return FileArena.load(files);
+	}
 }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.FileHandle;
+
+/** Copies and moves a directory with the parameterized number of files of the parameterized size. Copying a single file is
+ * measured by {@link CopyFileBenchmark}, which doesn't depend on the number of files. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark {
+	@Param({"1024", "1048576"})
+	public int size;
+
+	@Param({"10", "1000"})
+	public int fanOut;
+
+	private FileHandle dir;
+	private FileHandle source;
+	private FileHandle moved;
+	private FileHandle dest;
+
+	@Setup(Level.Trial)
+	public void setup () {
+		dir = Fixtures.tempDirectory("copy");
+		source = dir.child("source");
+		Fixtures.populate(source, fanOut, size);
+		moved = dir.child("moved");
+		dest = dir.child("dest");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		dir.deleteDirectory();
+	}
+
+	@Setup(Level.Invocation)
+	public void clean () {
+		dest.deleteDirectory();
+		if (!source.exists()) moved.moveTo(source);
+		moved.deleteDirectory();
+	}
+
+	@Benchmark
+	public void copyDirectory () {
+		source.copyTo(dest);
+	}
+
+	@Benchmark
+	public void moveDirectory () {
+		source.moveTo(moved);
+	}
+}
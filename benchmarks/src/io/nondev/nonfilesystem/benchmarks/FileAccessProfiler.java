@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import io.nondev.nonfilesystem.FileHandle;
+import io.nondev.nonfilesystem.FileMetrics;
+
+/** Counts the file operations every benchmark operation makes, through {@link FileMetrics} installed on the files of the
+ * benchmarks. Each kind of operation that happened is reported as <code>fs.</code> followed by its name, such as
+ * <code>fs.read</code> for files opened for reading, <code>fs.exists</code> for existence checks and <code>fs.resolve</code> for
+ * classpath lookups. Enable it with <code>-prof io.nondev.nonfilesystem.benchmarks.FileAccessProfiler</code>. Only operations
+ * the file handles report are seen, not the system calls the JDK makes for them; channels, such as those checksums read
+ * through, aren't reported when they are opened, so for them only the lookups before are counted. */
+public class FileAccessProfiler implements InternalProfiler {
+	static private final Counter counter = new Counter();
+
+	@Override
+	public String getDescription () {
+		return "File operations per benchmark operation";
+	}
+
+	@Override
+	public void beforeIteration (BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+		synchronized (counter) {
+			if (Fixtures.files.getMetrics() != counter) {
+				counter.delegate = Fixtures.files.getMetrics();
+				Fixtures.files.setMetrics(counter);
+			}
+		}
+		for (int i = 0, n = counter.counts.length(); i < n; i++)
+			counter.counts.set(i, 0);
+		counter.counting = true;
+	}
+
+	@Override
+	public Collection<? extends Result> afterIteration (BenchmarkParams benchmarkParams, IterationParams iterationParams,
+		IterationResult result) {
+		counter.counting = false;
+		double ops = Math.max(1, result.getMetadata().getAllOps());
+		List<Result> results = new ArrayList<Result>();
+		for (FileMetrics.Operation operation : FileMetrics.Operation.values()) {
+			long count = counter.counts.get(operation.ordinal());
+			if (count == 0) continue;
+			String label = "fs." + operation.name().toLowerCase(Locale.ROOT);
+			results.add(new ScalarResult(label, count / ops, "calls/op", AggregationPolicy.AVG));
+		}
+		return results;
+	}
+
+	/** Counts the finished operations and opened streams while an iteration runs, forwarding everything to the metrics that
+	 * were installed before. */
+	static private class Counter implements FileMetrics {
+		final AtomicLongArray counts = new AtomicLongArray(Operation.values().length);
+		volatile FileMetrics delegate = FileMetrics.NONE;
+		volatile boolean counting;
+
+		@Override
+		public void started (FileHandle file, Operation operation) {
+			delegate.started(file, operation);
+		}
+
+		@Override
+		public void record (FileHandle file, Operation operation, long bytes, long nanos) {
+			if (counting) counts.incrementAndGet(operation.ordinal());
+			delegate.record(file, operation, bytes, nanos);
+		}
+
+		@Override
+		public void streamOpened (FileHandle file, Operation operation) {
+			if (counting) counts.incrementAndGet(operation.ordinal());
+			delegate.streamOpened(file, operation);
+		}
+
+		@Override
+		public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos) {
+			delegate.streamClosed(file, operation, bytes, nanos);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.Random;
+
+import io.nondev.nonfilesystem.DesktopFiles;
+import io.nondev.nonfilesystem.FileHandle;
+import io.nondev.nonfilesystem.Files;
+
+/** Creates and removes the files the benchmarks operate on. */
+final class Fixtures {
+	static final Files files = new DesktopFiles();
+
+	/** Name of a small file bundled with the benchmarks, used to compare classpath lookups with filesystem lookups. */
+	static final String CLASSPATH_FILE = "io/nondev/nonfilesystem/benchmarks/classpath.txt";
+
+	private Fixtures () {
+	}
+
+	/** @return an {@link Files#absolute(String)} handle to a new empty temporary directory. */
+	static FileHandle tempDirectory (String prefix) {
+		return files.absolute(FileHandle.tempDirectory(files, prefix).path());
+	}
+
+	static byte[] randomBytes (int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	/** @return text of roughly the requested size in bytes, split into lines. */
+	static String randomText (int size) {
+		StringBuilder builder = new StringBuilder(size);
+		Random random = new Random(size);
+		while (builder.length() < size) {
+			int lineLength = 20 + random.nextInt(100);
+			for (int i = 0; i < lineLength; i++)
+				builder.append((char)('a' + random.nextInt(26)));
+			builder.append('\n');
+		}
+		builder.setLength(size);
+		return builder.toString();
+	}
+
+	/** Fills the directory with fanOut files of the specified size, every other one with a .txt suffix. */
+	static void populate (FileHandle dir, int fanOut, int size) {
+		byte[] bytes = randomBytes(size);
+		for (int i = 0; i < fanOut; i++)
+			dir.child("file" + i + (i % 2 == 0 ? ".txt" : ".bin")).writeBytes(bytes, false);
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.DesktopFileHandle;
+import io.nondev.nonfilesystem.FileHandle;
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Measures {@link DesktopFileHandle#equals(Object)} and {@link DesktopFileHandle#hashCode()}, which are hit whenever handles
+ * are used as map keys. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandleBenchmark {
+	private FileHandle handle;
+	private FileHandle equal;
+	private FileHandle different;
+
+	@Setup
+	public void setup () {
+		String path = "assets/textures/characters/player/idle.png";
+		handle = new DesktopFileHandle(Fixtures.files, path, FileType.Internal);
+		equal = new DesktopFileHandle(Fixtures.files, path, FileType.Internal);
+		different = new DesktopFileHandle(Fixtures.files, path, FileType.Local);
+	}
+
+	@Benchmark
+	public int hashCodeHandle () {
+		return handle.hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsEqual () {
+		return handle.equals(equal);
+	}
+
+	@Benchmark
+	public boolean equalsDifferentType () {
+		return handle.equals(different);
+	}
+}
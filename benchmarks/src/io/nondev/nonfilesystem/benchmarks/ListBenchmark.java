@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FilenameFilter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.DesktopFileHandle;
+import io.nondev.nonfilesystem.FileHandle;
+
+/** Lists a directory with the parameterized number of children. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListBenchmark {
+	static private final FileFilter fileFilter = new FileFilter() {
+		@Override
+		public boolean accept (File file) {
+			return file.getName().endsWith(".txt");
+		}
+	};
+
+	static private final FilenameFilter filenameFilter = new FilenameFilter() {
+		@Override
+		public boolean accept (File dir, String name) {
+			return name.endsWith(".txt");
+		}
+	};
+
+	@Param({"10", "1000", "50000"})
+	public int fanOut;
+
+	private FileHandle dir;
+
+	@Setup
+	public void setup () {
+		dir = Fixtures.tempDirectory("list");
+		Fixtures.populate(dir, fanOut, 0);
+	}
+
+	@TearDown
+	public void tearDown () {
+		dir.deleteDirectory();
+	}
+
+	@Benchmark
+	public FileHandle[] list () {
+		return dir.list();
+	}
+
+	@Benchmark
+	public FileHandle[] listSuffix () {
+		return dir.list(".txt");
+	}
+
+	@Benchmark
+	public FileHandle[] listFileFilter () {
+		return dir.list(fileFilter);
+	}
+
+	@Benchmark
+	public FileHandle[] listFilenameFilter () {
+		return dir.list(filenameFilter);
+	}
+
+	/** Lists the directory and queries what a directory view shows for every child. */
+	@Benchmark
+	public long listAndStat () {
+		return stat(dir.list());
+	}
+
+	/** Same as {@link #listAndStat()}, using the attributes snapshot taken while listing. */
+	@Benchmark
+	public long listWithAttributesAndStat () {
+		return stat(((DesktopFileHandle)dir).listWithAttributes());
+	}
+
+	static private long stat (FileHandle[] children) {
+		long sum = 0;
+		for (FileHandle child : children)
+			sum += (child.isDirectory() ? 1 : 0) + child.length() + child.lastModified();
+		return sum;
+	}
+}
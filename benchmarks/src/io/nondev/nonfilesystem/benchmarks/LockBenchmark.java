@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.FileHandle;
+import io.nondev.nonfilesystem.FileHandleLock;
+
+/** Compares threads reading small files under one global lock, the workaround for the lack of file locks, with threads taking
+ * {@link FileHandle#lock(boolean)} on the file they read: exclusive locks on a file per thread and shared locks on one file. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LockBenchmark {
+	@Param({"4096"})
+	public int size;
+
+	private final Object globalLock = new Object();
+	private final AtomicInteger threads = new AtomicInteger();
+	private FileHandle dir;
+	private FileHandle[] files;
+
+	@Setup
+	public void setup () {
+		dir = Fixtures.tempDirectory("lock");
+		files = new FileHandle[4];
+		byte[] bytes = Fixtures.randomBytes(size);
+		for (int i = 0; i < files.length; i++) {
+			files[i] = dir.child("file" + i);
+			files[i].writeBytes(bytes, false);
+		}
+	}
+
+	@TearDown
+	public void tearDown () {
+		dir.deleteDirectory();
+	}
+
+	/** The file each thread reads when threads don't share files. */
+	@State(Scope.Thread)
+	static public class ThreadFile {
+		FileHandle file;
+
+		@Setup
+		public void setup (LockBenchmark benchmark) {
+			file = benchmark.files[benchmark.threads.getAndIncrement() % benchmark.files.length];
+		}
+	}
+
+	@Benchmark
+	public byte[] globalLock (ThreadFile thread) {
+		synchronized (globalLock) {
+			return thread.file.readBytes();
+		}
+	}
+
+	@Benchmark
+	public byte[] exclusiveLockPerFile (ThreadFile thread) {
+		FileHandleLock lock = thread.file.lock(false);
+		try {
+			return thread.file.readBytes();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Benchmark
+	public byte[] sharedLockSameFile () {
+		FileHandleLock lock = files[0].lock(true);
+		try {
+			return files[0].readBytes();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Benchmark
+	public byte[] exclusiveLockSameFile () {
+		FileHandleLock lock = files[0].lock(false);
+		try {
+			return files[0].readBytes();
+		} finally {
+			lock.release();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.FileHandle;
+
+/** Compares {@link FileHandle#exists()} and {@link FileHandle#length()} of the same small file resolved as a classpath, an
+ * internal (falling back to the classpath) and an absolute file. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetadataBenchmark {
+	private FileHandle dir;
+	private FileHandle classpath;
+	private FileHandle internal;
+	private FileHandle absolute;
+
+	@Setup
+	public void setup () {
+		classpath = Fixtures.files.classpath(Fixtures.CLASSPATH_FILE);
+		internal = Fixtures.files.internal(Fixtures.CLASSPATH_FILE);
+		dir = Fixtures.tempDirectory("metadata");
+		absolute = dir.child("classpath.txt");
+		absolute.writeBytes(classpath.readBytes(), false);
+	}
+
+	@TearDown
+	public void tearDown () {
+		dir.deleteDirectory();
+	}
+
+	@Benchmark
+	public boolean existsClasspath () {
+		return classpath.exists();
+	}
+
+	@Benchmark
+	public boolean existsInternal () {
+		return internal.exists();
+	}
+
+	@Benchmark
+	public boolean existsAbsolute () {
+		return absolute.exists();
+	}
+
+	@Benchmark
+	public long lengthClasspath () {
+		return classpath.length();
+	}
+
+	@Benchmark
+	public long lengthInternal () {
+		return internal.length();
+	}
+
+	@Benchmark
+	public long lengthAbsolute () {
+		return absolute.length();
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.FileHandle;
+import io.nondev.nonfilesystem.FileHandle.Algorithm;
+
+/** Reads a small file through local and internal handles, which have to find out whether the file is on the filesystem or on
+ * the classpath. Run with <code>-prof io.nondev.nonfilesystem.benchmarks.FileAccessProfiler</code> to see how many file
+ * operations each read makes. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OpenBenchmark {
+	private FileHandle dir;
+	private FileHandle local;
+	private FileHandle internal;
+	private FileHandle classpathLocal;
+
+	@Setup
+	public void setup () {
+		dir = Fixtures.tempDirectory("open");
+		FileHandle absolute = dir.child("classpath.txt");
+		absolute.writeBytes(Fixtures.files.classpath(Fixtures.CLASSPATH_FILE).readBytes(), false);
+		// Local paths are relative to the working directory.
+		Path localPath = Paths.get(Fixtures.files.getLocalStoragePath()).relativize(Paths.get(absolute.path()));
+		local = Fixtures.files.local(localPath.toString());
+		internal = Fixtures.files.internal(absolute.path());
+		// Not in the working directory, so every read falls back to the classpath.
+		classpathLocal = Fixtures.files.local(Fixtures.CLASSPATH_FILE);
+	}
+
+	@TearDown
+	public void tearDown () {
+		dir.deleteDirectory();
+	}
+
+	@Benchmark
+	public byte[] readLocal () {
+		return local.readBytes();
+	}
+
+	@Benchmark
+	public byte[] readInternal () {
+		return internal.readBytes();
+	}
+
+	@Benchmark
+	public byte[] readClasspathLocal () {
+		return classpathLocal.readBytes();
+	}
+
+	@Benchmark
+	public void readChannelLocal () throws IOException {
+		local.readChannel().close();
+	}
+
+	@Benchmark
+	public byte[] checksumLocal () {
+		return local.checksum(Algorithm.Crc32);
+	}
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem.benchmarks;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nondev.nonfilesystem.FileHandle;
+
+/** Reads a whole file of the parameterized size, into memory or into another channel. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBenchmark {
+	@Param({"1024", "65536", "1048576", "16777216"})
+	public int size;
+
+	private FileHandle dir;
+	private FileHandle binary;
+	private FileHandle text;
+	private RandomAccessFile sinkFile;
+	private FileChannel sink;
+
+	@Setup
+	public void setup () {
+		dir = Fixtures.tempDirectory("read");
+		binary = dir.child("file.bin");
+		binary.writeBytes(Fixtures.randomBytes(size), false);
+		text = dir.child("file.txt");
+		text.writeString(Fixtures.randomText(size), false, "UTF-8");
+		try {
+			sinkFile = new RandomAccessFile(dir.child("sink.bin").file(), "rw");
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+		sink = sinkFile.getChannel();
+	}
+
+	@TearDown
+	public void tearDown () throws Exception {
+		sinkFile.close();
+		dir.deleteDirectory();
+	}
+
+	@Benchmark
+	public byte[] readBytes () {
+		return binary.readBytes();
+	}
+
+	@Benchmark
+	public String readString () {
+		return text.readString("UTF-8");
+	}
+
+	@Benchmark
+	public long transferTo () throws Exception {
+		sink.position(0);
+		return binary.transferTo(sink);
+	}
+
+	@Benchmark
+	public int readBytesAndWrite () throws Exception {
+		sink.position(0);
+		return sink.write(ByteBuffer.wrap(binary.readBytes()));
+	}
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** {@link FileMetrics} that records which files are read, in the order they are first read, with the number of bytes read from
+ * them. Installed while an application starts, the trace can be saved and replayed on the next start with
+ * {@link AccessTraceReplayer}, which reads the files ahead of the application.
+ * 
+ * <pre>
+ * AccessTrace trace = new AccessTrace(files.getMetrics());
+ * files.setMetrics(trace);
+ * ... load everything needed at startup ...
+ * files.setMetrics(trace.getDelegate());
+ * trace.save(files.local("startup.trace"));
+ * </pre>
+ * 
+ * The trace file stores the type, path and size of every file, sizes as variable length integers. */
+public class AccessTrace implements FileMetrics {
+	static final int MAGIC = 0x4e4f4e54; // "NONT"
+	static final int VERSION = 1;
+
+	private final FileMetrics delegate;
+	private final int maxFiles;
+	private final Map<FileHandle, long[]> files = new LinkedHashMap<FileHandle, long[]>();
+	private volatile boolean recording = true;
+
+	/** Creates a trace recording at most 65536 files that forwards nothing. */
+	public AccessTrace () {
+		this(FileMetrics.NONE, 65536);
+	}
+
+	/** Creates a trace recording at most 65536 files.
+	 * @param delegate receives every measurement too, so metrics that were installed keep working. May be null. */
+	public AccessTrace (FileMetrics delegate) {
+		this(delegate, 65536);
+	}
+
+	/** @param delegate receives every measurement too, so metrics that were installed keep working. May be null.
+	 * @param maxFiles the maximum number of files to record, files read after the limit was reached are ignored. */
+	public AccessTrace (FileMetrics delegate, int maxFiles) {
+		this.delegate = delegate == null ? FileMetrics.NONE : delegate;
+		this.maxFiles = maxFiles;
+	}
+
+	public FileMetrics getDelegate () {
+		return delegate;
+	}
+
+	@Override
+	public void started (FileHandle file, Operation operation) {
+		delegate.started(file, operation);
+	}
+
+	@Override
+	public void record (FileHandle file, Operation operation, long bytes, long nanos) {
+		if (operation == Operation.Read) read(file, bytes);
+		delegate.record(file, operation, bytes, nanos);
+	}
+
+	@Override
+	public void streamOpened (FileHandle file, Operation operation) {
+		if (operation == Operation.Read) read(file, 0);
+		delegate.streamOpened(file, operation);
+	}
+
+	@Override
+	public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos) {
+		if (operation == Operation.Read) read(file, bytes);
+		delegate.streamClosed(file, operation, bytes, nanos);
+	}
+
+	private void read (FileHandle file, long bytes) {
+		if (!recording) return;
+		synchronized (files) {
+			long[] size = files.get(file);
+			if (size == null) {
+				if (files.size() >= maxFiles) return;
+				files.put(file, size = new long[1]);
+			}
+			if (bytes > size[0]) size[0] = bytes;
+		}
+	}
+
+	/** Stops recording, files read afterwards are ignored. Measurements are still forwarded to the delegate. */
+	public void stop () {
+		recording = false;
+	}
+
+	/** @return the number of files recorded. */
+	public int size () {
+		synchronized (files) {
+			return files.size();
+		}
+	}
+
+	/** @return the files recorded, in the order they were first read. */
+	public FileHandle[] getFiles () {
+		synchronized (files) {
+			return files.keySet().toArray(new FileHandle[files.size()]);
+		}
+	}
+
+	/** Writes the trace to the file, overwriting it.
+	 * @throws RuntimeException if the file could not be written. */
+	public void save (FileHandle trace) {
+		List<FileHandle> handles;
+		List<Long> sizes;
+		synchronized (files) {
+			handles = new ArrayList<FileHandle>(files.keySet());
+			sizes = new ArrayList<Long>(files.size());
+			for (long[] size : files.values())
+				sizes.add(size[0]);
+		}
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(trace.write(false)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeByte(VERSION);
+			writeVarLong(output, handles.size());
+			for (int i = 0, n = handles.size(); i < n; i++) {
+				FileHandle file = handles.get(i);
+				output.writeByte(file.type().ordinal());
+				output.writeUTF(file.path());
+				writeVarLong(output, sizes.get(i));
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + trace, ex);
+		} finally {
+			FileHandle.closeQuietly(output);
+		}
+	}
+
+	/** Reads the files of a trace written by {@link #save(FileHandle)}.
+	 * @param sizes receives the size recorded for every file, may be null.
+	 * @return handles created by the files instance, in the order they were first read.
+	 * @throws RuntimeException if the trace could not be read or is not a trace. */
+	static public FileHandle[] load (Files files, FileHandle trace, List<Long> sizes) {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(trace.read()));
+		try {
+			if (input.readInt() != MAGIC || input.readByte() != VERSION) throw new IOException("Not an access trace.");
+			FileType[] types = FileType.values();
+			int count = (int)readVarLong(input);
+			FileHandle[] handles = new FileHandle[count];
+			for (int i = 0; i < count; i++) {
+				FileType type = types[input.readByte()];
+				handles[i] = files.getFileHandle(input.readUTF(), type);
+				long size = readVarLong(input);
+				if (sizes != null) sizes.add(size);
+			}
+			return handles;
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + trace, ex);
+		} finally {
+			FileHandle.closeQuietly(input);
+		}
+	}
+
+	static private void writeVarLong (DataOutputStream output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int)value);
+	}
+
+	static private long readVarLong (DataInputStream input) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = input.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed variable length integer.");
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.nondev.nonfilesystem.IOScheduler.Priority;
+
+/** Reads the files of an {@link AccessTrace} in parallel, in the order they were read when the trace was recorded, so they are
+ * ready by the time the application asks for them. In {@link Mode#PageCache} mode the files are only read, which leaves them in
+ * the page cache of the operating system. In {@link Mode#Memory} mode the contents are also kept, up to a limit, and handed out
+ * once by {@link #readBytes(FileHandle)} and {@link #read(FileHandle)}; files past the limit are read like in the other mode.
+ * 
+ * <pre>
+ * AccessTraceReplayer replayer = new AccessTraceReplayer(files, files.local("startup.trace"));
+ * replayer.start(Mode.Memory, 64 * 1024 * 1024, null);
+ * byte[] bytes = replayer.readBytes(files.internal("data/atlas.png"));
+ * </pre> */
+public class AccessTraceReplayer {
+	public enum Mode {
+		/** Read the files and drop their contents. */
+		PageCache,
+		/** Read the files and keep their contents until they are asked for. */
+		Memory;
+	}
+
+	static private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue () {
+			return new byte[64 * 1024];
+		}
+	};
+
+	private final FileHandle[] files;
+	private final long[] sizes;
+	private final ConcurrentHashMap<FileHandle, Future<byte[]>> cache = new ConcurrentHashMap<FileHandle, Future<byte[]>>();
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+
+	/** Loads the trace, see {@link AccessTrace#load(Files, FileHandle, List)}. */
+	public AccessTraceReplayer (Files files, FileHandle trace) {
+		List<Long> sizes = new ArrayList<Long>();
+		this.files = AccessTrace.load(files, trace, sizes);
+		this.sizes = new long[sizes.size()];
+		for (int i = 0, n = this.sizes.length; i < n; i++)
+			this.sizes[i] = sizes.get(i);
+	}
+
+	/** Starts prefetching every file on the shared pool, keeping at most 64 MB in memory in {@link Mode#Memory} mode. */
+	public void start (Mode mode) {
+		start(mode, 64 * 1024 * 1024, null);
+	}
+
+	/** Starts prefetching every file. Files that don't exist anymore or fail to read are skipped.
+	 * @param maxBytes the number of bytes to keep in memory at most in {@link Mode#Memory} mode, as recorded in the trace.
+	 * @param scheduler runs the reads with {@link Priority#Background} priority, may be null to use the shared pool. */
+	public synchronized void start (Mode mode, long maxBytes, IOScheduler scheduler) {
+		long cached = 0;
+		for (int i = 0, n = files.length; i < n; i++) {
+			final FileHandle file = files[i];
+			boolean keep = mode == Mode.Memory && cached + sizes[i] <= maxBytes;
+			Callable<byte[]> read = keep ? new Callable<byte[]>() {
+				@Override
+				public byte[] call () {
+					return file.readBytes();
+				}
+			} : new Callable<byte[]>() {
+				@Override
+				public byte[] call () {
+					warm(file);
+					return null;
+				}
+			};
+			Future<byte[]> task = scheduler != null ? scheduler.submit(file, Priority.Background, read) : FileExecutor.get().submit(read);
+			tasks.add(task);
+			if (keep) {
+				cached += sizes[i];
+				cache.put(file, task);
+			}
+		}
+	}
+
+	static private void warm (FileHandle file) {
+		InputStream input = null;
+		try {
+			input = file.read();
+			byte[] buffer = buffers.get();
+			while (input.read(buffer) != -1)
+				continue;
+		} catch (Exception ignored) {
+			// Not prefetching a file only costs time later.
+		} finally {
+			FileHandle.closeQuietly(input);
+		}
+	}
+
+	/** @return the files of the trace, in the order they are prefetched. */
+	public FileHandle[] getFiles () {
+		return files.clone();
+	}
+
+	/** Returns the contents of the file, prefetched if it was kept in memory, waiting for the prefetch to finish if it is still
+	 * running. Kept contents are handed out once and then dropped, so later calls read the file again.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public byte[] readBytes (FileHandle file) {
+		Future<byte[]> task = cache.remove(file);
+		if (task != null) {
+			try {
+				byte[] bytes = task.get();
+				if (bytes != null) return bytes;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ignored) {
+				// Read it again below to report the error.
+			} catch (RuntimeException ignored) {
+				// Cancelled.
+			}
+		}
+		return file.readBytes();
+	}
+
+	/** Returns a stream of the file, reading from memory if it was kept, see {@link #readBytes(FileHandle)}. */
+	public InputStream read (FileHandle file) {
+		if (!cache.containsKey(file)) return file.read();
+		return new ByteArrayInputStream(readBytes(file));
+	}
+
+	/** @return whether every file of the trace was prefetched or skipped. */
+	public synchronized boolean isDone () {
+		for (int i = 0, n = tasks.size(); i < n; i++)
+			if (!tasks.get(i).isDone()) return false;
+		return true;
+	}
+
+	/** Stops prefetching and drops all contents kept in memory. */
+	public synchronized void cancel () {
+		for (int i = 0, n = tasks.size(); i < n; i++)
+			tasks.get(i).cancel(false);
+		tasks.clear();
+		cache.clear();
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/** Stores values by key in a directory, such as one from {@link Files#local(String)}, spreading them over 256 x 256
+ * subdirectories by the hash of the key so no directory ever holds more than a small fraction of the files. The name of a file
+ * is derived from the SHA-256 of its key, so any string can be a key, but keys can't be listed.
+ * 
+ * Values are written to a temporary file with a unique name next to the final one, synced to the disk and renamed over it, so
+ * readers see either the old or the new value, never a partial one. That holds after a crash, and with several stores sharing
+ * the directory, even in other processes. It doesn't where renaming can't replace a file, such as on Windows without the
+ * desktop backend: there the old value is deleted first, so for a moment there is none, and a crash in between loses both.
+ * Reads open the file directly without checking whether it exists first. The handles of recently used keys are cached, up to
+ * a limit. All methods are thread safe. */
+public class BlobStore {
+	static private final char[] HEX = "0123456789abcdef".toCharArray();
+	static private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue () {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException ex) {
+				throw new RuntimeException("SHA-256 is not available.", ex);
+			}
+		}
+	};
+
+	private final FileHandle root;
+	private final Map<String, FileHandle> handles;
+
+	/** Creates a store caching the handles of 1024 keys. */
+	public BlobStore (FileHandle root) {
+		this(root, 1024);
+	}
+
+	/** @param cacheSize the number of keys whose handles are cached. */
+	public BlobStore (FileHandle root, final int cacheSize) {
+		this.root = root;
+		handles = new LinkedHashMap<String, FileHandle>(Math.min(cacheSize, 1024) * 2, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, FileHandle> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	public FileHandle root () {
+		return root;
+	}
+
+	/** @return the file the value of the key is stored in, which may not exist. */
+	public FileHandle file (String key) {
+		synchronized (handles) {
+			FileHandle handle = handles.get(key);
+			if (handle != null) return handle;
+		}
+		byte[] hash;
+		try {
+			hash = digests.get().digest(key.getBytes("UTF-8"));
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		char[] name = new char[32];
+		for (int i = 0; i < 16; i++) {
+			name[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			name[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+		String hex = new String(name);
+		FileHandle handle = root.child(hex.substring(0, 2) + '/' + hex.substring(2, 4) + '/' + hex);
+		synchronized (handles) {
+			handles.put(key, handle);
+		}
+		return handle;
+	}
+
+	/** Stores the value, replacing the previous value of the key atomically.
+	 * @throws RuntimeException if the value could not be written. */
+	public void put (String key, byte[] value) {
+		FileHandle handle = file(key);
+		long start = handle.begin(FileMetrics.Operation.Write);
+		File file = handle.file();
+		File temporary = new File(file.getPath() + '.' + UUID.randomUUID() + ".tmp");
+		try {
+			FileOutputStream output;
+			try {
+				output = new FileOutputStream(temporary);
+			} catch (FileNotFoundException ex) {
+				// The shard directory doesn't exist yet, or was deleted.
+				file.getParentFile().mkdirs();
+				output = new FileOutputStream(temporary);
+			}
+			try {
+				output.write(value);
+				// Otherwise a crash could leave the renamed file without its contents.
+				output.getFD().sync();
+			} finally {
+				output.close();
+			}
+			handle.replaceWith(temporary);
+		} catch (IOException ex) {
+			temporary.delete();
+			throw new RuntimeException("Error writing file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			handle.record(FileMetrics.Operation.Write, value.length, start);
+		}
+	}
+
+	/** @return the value of the key, or null if there is none.
+	 * @throws RuntimeException if the value could not be read. */
+	public byte[] get (String key) {
+		InputStream input = read(key);
+		if (input == null) return null;
+		try {
+			int length = input.available();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(length > 0 ? length : 512);
+			byte[] buffer = new byte[Math.min(Math.max(length, 1), 8192)];
+			int count;
+			while ((count = input.read(buffer)) != -1)
+				output.write(buffer, 0, count);
+			return output.toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file(key), ex);
+		} finally {
+			FileHandle.closeQuietly(input);
+		}
+	}
+
+	/** @return a stream of the value of the key, or null if there is none. */
+	public InputStream read (String key) {
+		FileHandle handle = file(key);
+		try {
+			return handle.track(new FileInputStream(handle.file()), System.nanoTime());
+		} catch (FileNotFoundException ex) {
+			return null;
+		}
+	}
+
+	/** @return whether the key has a value. */
+	public boolean contains (String key) {
+		return file(key).file().exists();
+	}
+
+	/** Removes the value of the key.
+	 * @return whether the key had a value. */
+	public boolean delete (String key) {
+		return file(key).delete();
+	}
+}
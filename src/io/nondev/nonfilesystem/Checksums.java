@@ -0,0 +1,482 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import io.nondev.nonfilesystem.FileHandle.Algorithm;
+
+/** Implementation of {@link FileHandle#checksum(Algorithm)} and {@link FileHandle#directoryDigest(Algorithm)}. Filesystem files
+ * are hashed straight from memory mapped buffers by algorithms that can read them without copying, and streamed through a reused
+ * buffer otherwise. Everything else is streamed through {@link FileHandle#read()}. */
+final class Checksums {
+	/** Files up to this size are streamed, mapping them costs more than it saves. */
+	static private final int MAP_THRESHOLD = 64 * 1024;
+	static private final int BUFFER_SIZE = 64 * 1024;
+	/** Size of a single mapped region. */
+	static private final long MAP_SIZE = 64L * 1024 * 1024;
+	/** CRC32 of files bigger than this is computed in parallel, one chunk per mapped region. */
+	static private final long PARALLEL_THRESHOLD = 2 * MAP_SIZE;
+	static private final int CACHE_SIZE = 16384;
+
+	static private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<String, CacheEntry> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private Checksums () {
+	}
+
+	static byte[] checksum (FileHandle handle, Algorithm algorithm) {
+		FileChannel channel = handle.openChannel();
+		try {
+			if (channel == null) return checksum(handle.read(), algorithm);
+			return checksum(channel, algorithm);
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+	}
+
+	static byte[] directoryDigest (FileHandle handle, Algorithm algorithm) {
+		if (!handle.isDirectory()) return cachedChecksum(handle, algorithm);
+		FileHandle[] children = handle.list();
+		Arrays.sort(children, new Comparator<FileHandle>() {
+			@Override
+			public int compare (FileHandle a, FileHandle b) {
+				return a.name().compareTo(b.name());
+			}
+		});
+		Hasher hasher = hasher(algorithm);
+		for (int i = 0, n = children.length; i < n; i++) {
+			FileHandle child = children[i];
+			boolean directory = child.isDirectory();
+			byte[] digest = directory ? directoryDigest(child, algorithm) : cachedChecksum(child, algorithm);
+			hasher.update(utf8(child.name()));
+			hasher.update(new byte[] {0, (byte)(directory ? 'd' : 'f')});
+			hasher.update(digest);
+		}
+		return hasher.digest();
+	}
+
+	/** Returns the checksum of the file, reusing the previous result if neither the length nor the modification time of the file
+	 * changed since. Only files on the filesystem are cached, classpath and asset files have no modification time. */
+	static private byte[] cachedChecksum (FileHandle handle, Algorithm algorithm) {
+		FileChannel channel = handle.openChannel();
+		if (channel == null) return checksum(handle, algorithm);
+		try {
+			File file = handle.file();
+			String key = algorithm.ordinal() + ":" + file.getAbsolutePath();
+			long length = channel.size();
+			long lastModified = file.lastModified();
+			CacheEntry entry;
+			synchronized (cache) {
+				entry = cache.get(key);
+			}
+			if (entry != null && entry.length == length && entry.lastModified == lastModified) return entry.digest.clone();
+			byte[] digest = checksum(channel, algorithm);
+			synchronized (cache) {
+				cache.put(key, new CacheEntry(length, lastModified, digest.clone()));
+			}
+			return digest;
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+	}
+
+	static private byte[] checksum (InputStream input, Algorithm algorithm) throws IOException {
+		try {
+			Hasher hasher = hasher(algorithm);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = input.read(buffer)) != -1)
+				hasher.update(buffer, 0, count);
+			return hasher.digest();
+		} finally {
+			FileHandle.closeQuietly(input);
+		}
+	}
+
+	static private byte[] checksum (FileChannel channel, Algorithm algorithm) throws IOException {
+		long size = channel.size();
+		if (algorithm == Algorithm.Crc32 && size > PARALLEL_THRESHOLD) return parallelCrc32(channel, size);
+		Hasher hasher = hasher(algorithm);
+		if (size > MAP_THRESHOLD && hasher.readsDirectBuffers()) {
+			for (long position = 0; position < size; position += MAP_SIZE)
+				hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+		} else
+			update(hasher, channel, 0, size);
+		return hasher.digest();
+	}
+
+	/** Computes CRC32 of every mapped region on the shared pool and folds the partial results together, which yields exactly the
+	 * same value as hashing the file sequentially. */
+	static private byte[] parallelCrc32 (final FileChannel channel, long size) throws IOException {
+		List<Future<Long>> parts = new ArrayList<Future<Long>>();
+		List<Long> lengths = new ArrayList<Long>();
+		for (long position = 0; position < size; position += MAP_SIZE) {
+			final long start = position;
+			final long length = Math.min(MAP_SIZE, size - position);
+			lengths.add(length);
+			parts.add(FileExecutor.get().submit(new Callable<Long>() {
+				@Override
+				public Long call () throws IOException {
+					Crc32Hasher hasher = new Crc32Hasher();
+					if (hasher.readsDirectBuffers())
+						hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+					else
+						update(hasher, channel, start, length);
+					return hasher.value();
+				}
+			}));
+		}
+		long crc = 0;
+		try {
+			for (int i = 0, n = parts.size(); i < n; i++)
+				crc = crc32Combine(crc, parts.get(i).get(), lengths.get(i));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing checksum.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+			throw new IOException("Error computing checksum.", ex.getCause());
+		} finally {
+			for (int i = 0, n = parts.size(); i < n; i++)
+				parts.get(i).cancel(false);
+		}
+		return toBytes(crc, 4);
+	}
+
+	/** Hashes a region of the file through a heap buffer, whose array the hashers read without copying. */
+	static private void update (Hasher hasher, FileChannel channel, long start, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int)Math.max(1, Math.min(BUFFER_SIZE, length)));
+		for (long position = start, end = start + length; position < end;) {
+			buffer.clear();
+			buffer.limit((int)Math.min(buffer.capacity(), end - position));
+			int count = channel.read(buffer, position);
+			if (count == -1) break;
+			position += count;
+			buffer.flip();
+			hasher.update(buffer);
+		}
+	}
+
+	/** Combines CRC32 of two consecutive blocks, see crc32_combine() in zlib. */
+	static private long crc32Combine (long crc1, long crc2, long length2) {
+		if (length2 <= 0) return crc1;
+		long[] even = new long[32];
+		long[] odd = new long[32];
+		odd[0] = 0xedb88320L;
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((length2 & 1) != 0) crc1 = gf2MatrixTimes(even, crc1);
+			length2 >>= 1;
+			if (length2 == 0) break;
+			gf2MatrixSquare(odd, even);
+			if ((length2 & 1) != 0) crc1 = gf2MatrixTimes(odd, crc1);
+			length2 >>= 1;
+		} while (length2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	static private long gf2MatrixTimes (long[] matrix, long vector) {
+		long sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1)
+			if ((vector & 1) != 0) sum ^= matrix[i];
+		return sum;
+	}
+
+	static private void gf2MatrixSquare (long[] square, long[] matrix) {
+		for (int n = 0; n < 32; n++)
+			square[n] = gf2MatrixTimes(matrix, matrix[n]);
+	}
+
+	static private Hasher hasher (Algorithm algorithm) {
+		switch (algorithm) {
+		case Crc32:
+			return new Crc32Hasher();
+		case XxHash64:
+			return new XxHash64Hasher();
+		case Sha256:
+			try {
+				return new MessageDigestHasher(MessageDigest.getInstance("SHA-256"));
+			} catch (NoSuchAlgorithmException ex) {
+				throw new RuntimeException("SHA-256 is not supported on this platform.", ex);
+			}
+		}
+		throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+	}
+
+	static private byte[] utf8 (String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	static private byte[] toBytes (long value, int count) {
+		byte[] bytes = new byte[count];
+		for (int i = count - 1; i >= 0; i--, value >>>= 8)
+			bytes[i] = (byte)value;
+		return bytes;
+	}
+
+	static private class CacheEntry {
+		final long length;
+		final long lastModified;
+		final byte[] digest;
+
+		CacheEntry (long length, long lastModified, byte[] digest) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+	}
+
+	static private abstract class Hasher {
+		abstract void update (byte[] bytes, int offset, int length);
+
+		abstract byte[] digest ();
+
+		void update (byte[] bytes) {
+			update(bytes, 0, bytes.length);
+		}
+
+		/** Hashes the remaining bytes of a heap buffer. */
+		void update (ByteBuffer buffer) {
+			if (!buffer.hasArray()) throw new IllegalArgumentException("Only heap buffers can be hashed.");
+			update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		}
+
+		/** @return whether {@link #update(ByteBuffer)} reads direct buffers, such as mapped files, without copying them. */
+		boolean readsDirectBuffers () {
+			return false;
+		}
+	}
+
+	static private class Crc32Hasher extends Hasher {
+		/** CRC32.update(ByteBuffer), which reads direct buffers in place, only exists since Java 8 and Android 8.0. */
+		static private final Method updateBuffer;
+		static {
+			Method method;
+			try {
+				method = CRC32.class.getMethod("update", ByteBuffer.class);
+			} catch (NoSuchMethodException ex) {
+				method = null;
+			}
+			updateBuffer = method;
+		}
+
+		private final CRC32 crc = new CRC32();
+
+		@Override
+		void update (byte[] bytes, int offset, int length) {
+			crc.update(bytes, offset, length);
+		}
+
+		@Override
+		boolean readsDirectBuffers () {
+			return updateBuffer != null;
+		}
+
+		@Override
+		void update (ByteBuffer buffer) {
+			if (buffer.hasArray() || updateBuffer == null) {
+				super.update(buffer);
+				return;
+			}
+			try {
+				updateBuffer.invoke(crc, buffer);
+			} catch (IllegalAccessException ex) {
+				throw new RuntimeException(ex);
+			} catch (InvocationTargetException ex) {
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+
+		long value () {
+			return crc.getValue();
+		}
+
+		@Override
+		byte[] digest () {
+			return toBytes(crc.getValue(), 4);
+		}
+	}
+
+	static private class MessageDigestHasher extends Hasher {
+		private final MessageDigest digest;
+
+		MessageDigestHasher (MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		void update (byte[] bytes, int offset, int length) {
+			digest.update(bytes, offset, length);
+		}
+
+		/** Mapped buffers are passed to the digest, which hashes them in small cache resident pieces. That still beats reading
+		 * the file through the system call, which copies just the same. */
+		@Override
+		boolean readsDirectBuffers () {
+			return true;
+		}
+
+		@Override
+		void update (ByteBuffer buffer) {
+			digest.update(buffer);
+		}
+
+		@Override
+		byte[] digest () {
+			return digest.digest();
+		}
+	}
+
+	/** Streaming implementation of the 64 bit xxHash with seed 0. */
+	static private class XxHash64Hasher extends Hasher {
+		static private final long PRIME1 = 0x9E3779B185EBCA87L;
+		static private final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+		static private final long PRIME3 = 0x165667B19E3779F9L;
+		static private final long PRIME4 = 0x85EBCA77C2B2AE63L;
+		static private final long PRIME5 = 0x27D4EB2F165667C5L;
+
+		private long v1 = PRIME1 + PRIME2, v2 = PRIME2, v3 = 0, v4 = -PRIME1;
+		private long total;
+		private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+		@Override
+		void update (byte[] bytes, int offset, int length) {
+			update(ByteBuffer.wrap(bytes, offset, length));
+		}
+
+		@Override
+		boolean readsDirectBuffers () {
+			return true;
+		}
+
+		@Override
+		void update (ByteBuffer buffer) {
+			buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+			total += buffer.remaining();
+			if (pending.position() > 0) {
+				while (pending.hasRemaining() && buffer.hasRemaining())
+					pending.put(buffer.get());
+				if (pending.hasRemaining()) return;
+				pending.flip();
+				stripe(pending);
+				pending.clear();
+			}
+			while (buffer.remaining() >= 32)
+				stripe(buffer);
+			pending.put(buffer);
+		}
+
+		private void stripe (ByteBuffer buffer) {
+			v1 = round(v1, buffer.getLong());
+			v2 = round(v2, buffer.getLong());
+			v3 = round(v3, buffer.getLong());
+			v4 = round(v4, buffer.getLong());
+		}
+
+		@Override
+		byte[] digest () {
+			long hash;
+			if (total >= 32) {
+				hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				hash = merge(hash, v1);
+				hash = merge(hash, v2);
+				hash = merge(hash, v3);
+				hash = merge(hash, v4);
+			} else
+				hash = PRIME5;
+			hash += total;
+			ByteBuffer tail = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			tail.flip();
+			while (tail.remaining() >= 8) {
+				hash ^= round(0, tail.getLong());
+				hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			}
+			if (tail.remaining() >= 4) {
+				hash ^= (tail.getInt() & 0xFFFFFFFFL) * PRIME1;
+				hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			}
+			while (tail.hasRemaining()) {
+				hash ^= (tail.get() & 0xFF) * PRIME5;
+				hash = Long.rotateLeft(hash, 11) * PRIME1;
+			}
+			hash ^= hash >>> 33;
+			hash *= PRIME2;
+			hash ^= hash >>> 29;
+			hash *= PRIME3;
+			hash ^= hash >>> 32;
+			return toBytes(hash, 8);
+		}
+
+		static private long round (long accumulator, long input) {
+			accumulator += input * PRIME2;
+			accumulator = Long.rotateLeft(accumulator, 31);
+			return accumulator * PRIME1;
+		}
+
+		static private long merge (long accumulator, long value) {
+			accumulator ^= round(0, value);
+			return accumulator * PRIME1 + PRIME4;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Implementation of {@link FileHandle#readChunks(int, boolean)} and {@link FileHandle#writeChunks(ByteBuffer[], boolean)}. The
+ * chunks are split into pieces that are read or written with positional I/O on the shared pool of the file system, so files
+ * larger than an array can be moved with several requests in flight at once. */
+final class ChunkedIO {
+	/** Bytes read or written by a single task. */
+	static private final int PIECE_SIZE = 16 * 1024 * 1024;
+
+	private ChunkedIO () {
+	}
+
+	static ByteBuffer[] read (FileHandle file, int chunkSize, boolean direct) {
+		if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be > 0: " + chunkSize);
+		FileChannel channel = file.openChannel();
+		if (channel == null) return readChannel(file, chunkSize, direct);
+		long start = file.begin(Operation.Read);
+		try {
+			long length = channel.size();
+			long count = (length + chunkSize - 1) / chunkSize;
+			if (count > Integer.MAX_VALUE - 8) throw new IOException("Too many chunks: " + count);
+			ByteBuffer[] chunks = new ByteBuffer[(int)count];
+			for (int i = 0, n = chunks.length; i < n; i++) {
+				int size = (int)Math.min(chunkSize, length - (long)i * chunkSize);
+				chunks[i] = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+			}
+			transfer(channel, chunks, 0, false);
+			file.record(Operation.Read, length, start);
+			return chunks;
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file + " (" + file.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+	}
+
+	/** Reads files that aren't on the filesystem sequentially, as their length isn't always known up front. */
+	static private ByteBuffer[] readChannel (FileHandle file, int chunkSize, boolean direct) {
+		ReadableByteChannel channel = Channels.newChannel(file.read());
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		try {
+			while (true) {
+				ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+				int count = 0;
+				while (chunk.hasRemaining()) {
+					count = channel.read(chunk);
+					if (count == -1) break;
+				}
+				chunk.flip();
+				if (chunk.limit() < chunkSize) {
+					// Trims the last chunk, so the capacity of every chunk is its length.
+					ByteBuffer trimmed = direct ? ByteBuffer.allocateDirect(chunk.limit()) : ByteBuffer.allocate(chunk.limit());
+					trimmed.put(chunk).flip();
+					chunk = trimmed;
+				}
+				if (chunk.hasRemaining()) chunks.add(chunk);
+				if (count == -1) break;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file + " (" + file.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+		return chunks.toArray(new ByteBuffer[chunks.size()]);
+	}
+
+	static void write (FileHandle file, ByteBuffer[] chunks, boolean append) {
+		FileType type = file.type();
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot write to a classpath file: " + file);
+		if (type == FileType.Internal) throw new RuntimeException("Cannot write to an internal file: " + file);
+		file.parent().mkdirs();
+		long start = file.begin(Operation.Write);
+		RandomAccessFile access;
+		try {
+			access = new RandomAccessFile(file.file(), "rw");
+		} catch (FileNotFoundException ex) {
+			if (file.file().isDirectory())
+				throw new RuntimeException("Cannot open a stream to a directory: " + file + " (" + type + ")", ex);
+			throw new RuntimeException("Error writing file: " + file + " (" + type + ")", ex);
+		}
+		long total = 0;
+		try {
+			for (int i = 0, n = chunks.length; i < n; i++)
+				total += chunks[i].remaining();
+			long position = append ? access.length() : 0;
+			// Sized up front, so the pieces fill in a file of the final length instead of each extending it.
+			access.setLength(position + total);
+			transfer(access.getChannel(), chunks, position, true);
+			for (int i = 0, n = chunks.length; i < n; i++)
+				chunks[i].position(chunks[i].limit());
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + file + " (" + type + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(access);
+		}
+		file.record(Operation.Write, total, start);
+	}
+
+	/** Reads or writes the remaining bytes of the buffers, which lie back to back in the file starting at the position. The
+	 * positions of the buffers are left unchanged. */
+	static private void transfer (FileChannel channel, ByteBuffer[] buffers, long position, boolean write) throws IOException {
+		List<Future<Void>> pieces = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 0, n = buffers.length; i < n; i++) {
+				ByteBuffer buffer = buffers[i];
+				for (long offset = buffer.position(), limit = buffer.limit(); offset < limit; offset += PIECE_SIZE) {
+					ByteBuffer bytes = buffer.duplicate();
+					bytes.position((int)offset).limit((int)Math.min(limit, offset + PIECE_SIZE));
+					Piece piece = new Piece(channel, bytes, position + offset - buffer.position(), write);
+					// A single piece isn't worth a thread switch.
+					if (buffers.length == 1 && limit - buffer.position() <= PIECE_SIZE)
+						piece.call();
+					else
+						pieces.add(FileExecutor.get().submit(piece));
+				}
+				position += buffer.remaining();
+			}
+			for (int i = 0, n = pieces.size(); i < n; i++)
+				pieces.get(i).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while transferring chunks.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+			throw new IOException("Error transferring chunks.", ex.getCause());
+		} finally {
+			for (int i = 0, n = pieces.size(); i < n; i++)
+				pieces.get(i).cancel(false);
+		}
+	}
+
+	/** Reads or writes the remaining bytes of a buffer at a position in the file. */
+	static private class Piece implements Callable<Void> {
+		private final FileChannel channel;
+		private final ByteBuffer bytes;
+		private final long position;
+		private final boolean write;
+
+		Piece (FileChannel channel, ByteBuffer bytes, long position, boolean write) {
+			this.channel = channel;
+			this.bytes = bytes;
+			this.position = position;
+			this.write = write;
+		}
+
+		@Override
+		public Void call () throws IOException {
+			for (long at = position; bytes.hasRemaining();) {
+				int count = write ? channel.write(bytes, at) : channel.read(bytes, at);
+				if (count == -1) throw new EOFException("File ended at " + at);
+				at += count;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** The contents of many files loaded into one buffer, one slice per file, see {@link Files#loadArena(Collection)}. Loading small
+ * files this way allocates one buffer instead of a byte array and a stream buffer per file, and keeps their contents next to
+ * each other in memory while they are parsed. Files on the filesystem are read straight into their slice, in parallel on the
+ * shared pool when there are many. */
+public class FileArena {
+	static private final int PARALLEL_THRESHOLD = 64;
+
+	private ByteBuffer buffer;
+	private final FileHandle[] files;
+	private final int[] offsets;
+	private final int[] lengths;
+	private volatile Map<FileHandle, Integer> indices;
+
+	private FileArena (FileHandle[] files) {
+		this.files = files;
+		offsets = new int[files.length];
+		lengths = new int[files.length];
+	}
+
+	/** Loads the files into a heap buffer, see {@link #load(Collection, boolean)}. */
+	static public FileArena load (Collection<? extends FileHandle> files) {
+		return load(files, false);
+	}
+
+	/** Loads the files into one buffer, in the order of the collection.
+	 * @param direct whether to allocate the buffer outside of the Java heap.
+	 * @throws RuntimeException if a file handle represents a directory, doesn't exist, or could not be read, or the files
+	 *            together are 2 GB or larger. */
+	static public FileArena load (Collection<? extends FileHandle> files, boolean direct) {
+		final FileArena arena = new FileArena(files.toArray(new FileHandle[files.size()]));
+		int count = arena.files.length;
+		final int[] capacities = new int[count];
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			long length = arena.files[i].length();
+			if (length > Integer.MAX_VALUE) throw new RuntimeException("File too large for an arena: " + arena.files[i]);
+			arena.offsets[i] = (int)total;
+			capacities[i] = (int)length;
+			total += length;
+			if (total > Integer.MAX_VALUE) throw new RuntimeException("Files too large for one arena: " + total + " bytes");
+		}
+		arena.buffer = direct ? ByteBuffer.allocateDirect((int)total) : ByteBuffer.allocate((int)total);
+		// Files that turn out longer than their length said are read again and appended to the end.
+		final boolean[] overflows = new boolean[count];
+		if (count < PARALLEL_THRESHOLD || FileExecutor.threads() < 2)
+			arena.read(0, count, capacities, overflows);
+		else {
+			List<Future<Void>> parts = new ArrayList<Future<Void>>();
+			int step = Math.max(PARALLEL_THRESHOLD / 4, count / (FileExecutor.threads() * 4));
+			for (int start = 0; start < count; start += step) {
+				final int from = start, to = Math.min(count, start + step);
+				parts.add(FileExecutor.get().submit(new Callable<Void>() {
+					@Override
+					public Void call () {
+						arena.read(from, to, capacities, overflows);
+						return null;
+					}
+				}));
+			}
+			try {
+				for (Future<Void> part : parts)
+					part.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while loading files.", ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+				throw new RuntimeException("Error loading files.", ex.getCause());
+			} finally {
+				for (Future<Void> part : parts)
+					part.cancel(false);
+			}
+		}
+		for (int i = 0; i < count; i++)
+			if (overflows[i]) arena.append(i, direct);
+		return arena;
+	}
+
+	private void read (int from, int to, int[] capacities, boolean[] overflows) {
+		for (int i = from; i < to; i++) {
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(offsets[i] + capacities[i]).position(offsets[i]);
+			overflows[i] = read(files[i], slice);
+			lengths[i] = slice.position() - offsets[i];
+		}
+	}
+
+	/** Reads the file into the remaining space of the buffer.
+	 * @return whether the file is longer than the space. */
+	static private boolean read (FileHandle file, ByteBuffer buffer) {
+		FileChannel channel = file.openChannel();
+		try {
+			if (channel != null) {
+				long start = file.begin(Operation.Read);
+				try {
+					while (buffer.hasRemaining())
+						if (channel.read(buffer) == -1) return false;
+					return channel.size() > channel.position();
+				} finally {
+					FileHandle.closeQuietly(channel);
+					file.record(Operation.Read, buffer.position(), start);
+				}
+			}
+			InputStream input = file.read();
+			try {
+				byte[] bytes = buffer.hasArray() ? buffer.array() : new byte[Math.min(buffer.remaining(), 8192)];
+				while (buffer.hasRemaining()) {
+					int count;
+					if (buffer.hasArray()) {
+						count = input.read(bytes, buffer.arrayOffset() + buffer.position(), buffer.remaining());
+						if (count == -1) return false;
+						buffer.position(buffer.position() + count);
+					} else {
+						count = input.read(bytes, 0, Math.min(bytes.length, buffer.remaining()));
+						if (count == -1) return false;
+						buffer.put(bytes, 0, count);
+					}
+				}
+				return input.read() != -1;
+			} finally {
+				FileHandle.closeQuietly(input);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file + " (" + file.type() + ")", ex);
+		}
+	}
+
+	/** Reads the file again and appends it to the end of the buffer, growing it. */
+	private void append (int index, boolean direct) {
+		byte[] bytes = files[index].readBytes();
+		int end = buffer.capacity();
+		if ((long)end + bytes.length > Integer.MAX_VALUE)
+			throw new RuntimeException("Files too large for one arena: " + ((long)end + bytes.length) + " bytes");
+		ByteBuffer grown = direct ? ByteBuffer.allocateDirect(end + bytes.length) : ByteBuffer.allocate(end + bytes.length);
+		ByteBuffer old = buffer.duplicate();
+		old.clear();
+		grown.put(old).put(bytes).clear();
+		buffer = grown;
+		offsets[index] = end;
+		lengths[index] = bytes.length;
+	}
+
+	/** @return the number of files. */
+	public int size () {
+		return files.length;
+	}
+
+	public FileHandle getFile (int index) {
+		return files[index];
+	}
+
+	/** @return the offset of the contents of the file in {@link #getBuffer()}. */
+	public int getOffset (int index) {
+		return offsets[index];
+	}
+
+	/** @return the length of the contents of the file. */
+	public int getLength (int index) {
+		return lengths[index];
+	}
+
+	/** @return the index of the file, or -1 if it is not in this arena. */
+	public int indexOf (FileHandle file) {
+		if (indices == null) {
+			Map<FileHandle, Integer> indices = new HashMap<FileHandle, Integer>(files.length * 2);
+			for (int i = files.length - 1; i >= 0; i--)
+				indices.put(files[i], i);
+			this.indices = indices;
+		}
+		Integer index = indices.get(file);
+		return index == null ? -1 : index;
+	}
+
+	/** @return a new buffer sharing the whole arena, positioned at zero. Its array, if it has one, holds every file. */
+	public ByteBuffer getBuffer () {
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.clear();
+		return buffer;
+	}
+
+	/** @return a new buffer sharing the contents of the file, with position zero and its length as the limit. */
+	public ByteBuffer slice (int index) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(offsets[index] + lengths[index]).position(offsets[index]);
+		return slice.slice();
+	}
+
+	/** @return a new buffer sharing the contents of the file, or null if it is not in this arena, see {@link #slice(int)}. */
+	public ByteBuffer slice (FileHandle file) {
+		int index = indexOf(file);
+		return index == -1 ? null : slice(index);
+	}
+}
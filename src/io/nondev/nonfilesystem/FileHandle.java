@@ -37,6 +37,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -47,7 +48,17 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
 import io.nondev.nonfilesystem.Files.FileType;
 
 /** Represents a file or directory on the filesystem, classpath, Android SD card, or Android assets directory. FileHandles are
@@ -60,9 +71,30 @@ import io.nondev.nonfilesystem.Files.FileType;
  * @author mzechner
  * @author Nathan Sweet */
 public class FileHandle {
+	/** Hash functions supported by {@link FileHandle#checksum(Algorithm)}. */
+	public enum Algorithm {
+		/** 32 bit cyclic redundancy check, cheapest to compute. Large files are hashed in parallel. */
+		Crc32,
+
+		/** 64 bit xxHash, fast non-cryptographic hash with a much lower collision rate than CRC32. */
+		XxHash64,
+
+		/** SHA-256, use when the checksum has to be resistant against tampering. */
+		Sha256;
+	}
+
+	static private final int UNRESOLVED = 0, ON_FILESYSTEM = 1, ON_CLASSPATH = 2;
+	static private final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+	/** Largest array most VMs can allocate. */
+	static private final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
 	protected File file;
 	protected FileType type;
 	protected Files files;
+	/** Cached result of {@link #file()} for types resolved against a storage path, null until first needed. */
+	protected File resolvedFile;
+	/** Where an {@link FileType#Internal} file was found. Internal files are read only, so this never changes once known. */
+	private volatile int resolution = UNRESOLVED;
 
 	/** Creates a new absolute FileHandle for the file name. Use this for tools on the desktop that don't need any of the backends.
 	 * Do not use this constructor in case you write something cross-platform. Use the {@link Files} interface instead.
@@ -136,25 +168,120 @@ public class FileHandle {
 	/** Returns a java.io.File that represents this file handle. Note the returned file will only be usable for
 	 * {@link FileType#Absolute} and {@link FileType#External} file handles. */
 	public File file () {
-		if (type == FileType.External) return new File(files.getExternalStoragePath(), file.getPath());
+		if (type == FileType.External) {
+			if (resolvedFile == null) resolvedFile = new File(files.getExternalStoragePath(), file.getPath());
+			return resolvedFile;
+		}
 		return file;
 	}
 
+	/** Returns the file on the filesystem that {@link #read()} would open, or null if this handle has to be read from the classpath
+	 * or the platform's asset storage instead. Where an {@link FileType#Internal} file was found is remembered. */
+	protected File resolve () {
+		switch (type) {
+		case Classpath:
+			return null;
+		case Internal:
+			if (resolution == UNRESOLVED && file().exists()) resolution = ON_FILESYSTEM;
+			return resolution == ON_FILESYSTEM ? file() : null;
+		case Local:
+			return file().exists() ? file() : null;
+		default:
+			return file();
+		}
+	}
+
+	/** Opens the file on the filesystem that {@link #read()} would open, without checking whether it exists first. Callers that
+	 * read the file should use this instead of {@link #resolve()}, which costs another system call.
+	 * @return the channel, or null if this handle has to be read through {@link #read()} instead, from the classpath or the
+	 *         platform's asset storage.
+	 * @throws RuntimeException if the file handle represents a directory or could not be opened. */
+	protected FileChannel openChannel () {
+		if (type == FileType.Classpath || resolution == ON_CLASSPATH) return null;
+		File file = file();
+		try {
+			FileChannel channel = new FileInputStream(file).getChannel();
+			if (type == FileType.Internal) resolution = ON_FILESYSTEM;
+			return channel;
+		} catch (FileNotFoundException ex) {
+			if (file.isDirectory())
+				throw new RuntimeException("Cannot open a stream to a directory: " + this.file + " (" + type + ")", ex);
+			if (type == FileType.Internal || type == FileType.Local) return null;
+			throw new RuntimeException("Error reading file: " + this.file + " (" + type + ")", ex);
+		}
+	}
+
+	/** Opens the file on the classpath.
+	 * @return the stream, or null if there is no such file on the classpath. */
+	private InputStream openClasspath () {
+		long start = begin(Operation.Resolve);
+		InputStream input = FileHandle.class.getResourceAsStream("/" + file.getPath().replace('\\', '/'));
+		record(Operation.Resolve, 0, start);
+		if (input != null && type == FileType.Internal) resolution = ON_CLASSPATH;
+		return input;
+	}
+
+	/** Returns the metrics of the {@link Files} instance that created this handle. */
+	protected FileMetrics metrics () {
+		return files == null ? FileMetrics.NONE : files.getMetrics();
+	}
+
+	/** Reports an operation on this file that starts now to the {@link FileMetrics}. Must be followed by
+	 * {@link #record(Operation, long, long)} with the returned time.
+	 * @return the {@link System#nanoTime()} at which the operation started. */
+	protected long begin (Operation operation) {
+		FileMetrics metrics = metrics();
+		if (metrics != FileMetrics.NONE) metrics.started(this, operation);
+		return System.nanoTime();
+	}
+
+	/** Reports a finished operation on this file to the {@link FileMetrics}.
+	 * @param start the {@link System#nanoTime()} at which the operation started. */
+	protected void record (Operation operation, long bytes, long start) {
+		FileMetrics metrics = metrics();
+		if (metrics != FileMetrics.NONE) metrics.record(this, operation, bytes, System.nanoTime() - start);
+	}
+
+	/** Wraps a stream reading this file, so it is reported to the {@link FileMetrics}.
+	 * @param start the {@link System#nanoTime()} at which opening the stream started. */
+	protected InputStream track (InputStream input, long start) {
+		FileMetrics metrics = metrics();
+		if (metrics == FileMetrics.NONE) return input;
+		return new MeteredInputStream(input, this, metrics, start);
+	}
+
+	/** Wraps a stream writing this file, so it is reported to the {@link FileMetrics}.
+	 * @param start the {@link System#nanoTime()} at which opening the stream started. */
+	protected OutputStream track (OutputStream output, long start) {
+		FileMetrics metrics = metrics();
+		if (metrics == FileMetrics.NONE) return output;
+		return new MeteredOutputStream(output, this, metrics, start);
+	}
+
 	/** Returns a stream for reading this file as bytes.
 	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
 	public InputStream read () {
-		if (type == FileType.Classpath || (type == FileType.Internal && !file().exists())
-			|| (type == FileType.Local && !file().exists())) {
-			InputStream input = FileHandle.class.getResourceAsStream("/" + file.getPath().replace('\\', '/'));
+		long start = System.nanoTime();
+		if (type == FileType.Classpath || resolution == ON_CLASSPATH) {
+			InputStream input = openClasspath();
 			if (input == null) throw new RuntimeException("File not found: " + file + " (" + type + ")");
-			return input;
+			return track(input, start);
 		}
+		// Opening the file right away costs one system call, checking whether it exists first would cost two.
+		File file = file();
 		try {
-			return new FileInputStream(file());
+			InputStream input = new FileInputStream(file);
+			if (type == FileType.Internal) resolution = ON_FILESYSTEM;
+			return track(input, start);
 		} catch (Exception ex) {
-			if (file().isDirectory())
-				throw new RuntimeException("Cannot open a stream to a directory: " + file + " (" + type + ")", ex);
-			throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
+			if (file.isDirectory())
+				throw new RuntimeException("Cannot open a stream to a directory: " + this.file + " (" + type + ")", ex);
+			if (type == FileType.Internal || type == FileType.Local) {
+				InputStream input = openClasspath();
+				if (input == null) throw new RuntimeException("File not found: " + this.file + " (" + type + ")");
+				return track(input, start);
+			}
+			throw new RuntimeException("Error reading file: " + this.file + " (" + type + ")", ex);
 		}
 	}
 
@@ -164,6 +291,14 @@ public class FileHandle {
 		return new BufferedInputStream(read(), bufferSize);
 	}
 
+	/** Returns a channel for reading this file. For files on the filesystem this is a {@link FileChannel}, which supports
+	 * positional reads, memory mapping and zero-copy transfers; other files are read through a channel wrapping {@link #read()}.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public ReadableByteChannel readChannel () {
+		FileChannel channel = openChannel();
+		return channel != null ? channel : Channels.newChannel(read());
+	}
+
 	/** Returns a reader for reading this file as characters.
 	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
 	public Reader reader () {
@@ -208,13 +343,15 @@ public class FileHandle {
 	 * @param charset If null the default charset is used.
 	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
 	public String readString (String charset) {
-		StringBuilder output = new StringBuilder(estimateLength());
+		InputStream input = read();
+		StringBuilder output;
 		InputStreamReader reader = null;
 		try {
+			output = new StringBuilder(estimateLength(input));
 			if (charset == null)
-				reader = new InputStreamReader(read());
+				reader = new InputStreamReader(input);
 			else
-				reader = new InputStreamReader(read(), charset);
+				reader = new InputStreamReader(input, charset);
 			char[] buffer = new char[256];
 			while (true) {
 				int length = reader.read(buffer);
@@ -225,16 +362,21 @@ public class FileHandle {
 			throw new RuntimeException("Error reading layout file: " + this, ex);
 		} finally {
 			closeQuietly(reader);
+			closeQuietly(input);
 		}
 		return output.toString();
 	}
 
-	/** Reads the entire file into a byte array.
-	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	/** Reads the entire file into a byte array. Files larger than an array can hold have to be read with
+	 * {@link #readChunks(int, boolean)}.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, is too large, or could not be read. */
 	public byte[] readBytes () {
 		InputStream input = read();
 		try {
-			return copyStreamToByteArray(input, estimateLength());
+			int estimatedLength = estimateLength(input);
+			if (estimatedLength == MAX_ARRAY_SIZE && length() > MAX_ARRAY_SIZE)
+				throw new RuntimeException("File is too large for a byte array: " + file + " (" + type + ")");
+			return copyStreamToByteArray(input, estimatedLength);
 		} catch (IOException ex) {
 			throw new RuntimeException("Error reading file: " + this, ex);
 		} finally {
@@ -242,9 +384,11 @@ public class FileHandle {
 		}
 	}
 
-	private int estimateLength () {
-		int length = (int)length();
-		return length != 0 ? length : 512;
+	/** Asks the opened stream instead of calling {@link #length()}, which for files on the filesystem saves a stat. */
+	static private int estimateLength (InputStream input) throws IOException {
+		int length = input.available();
+		if (length == 0) return 512;
+		return Math.min(length, MAX_ARRAY_SIZE);
 	}
 
 	/** Reads the entire file into the byte array. The byte array must be big enough to hold the file's data.
@@ -269,6 +413,163 @@ public class FileHandle {
 		return position - offset;
 	}
 
+	/** Reads ints from the start of this file until the array is full or the file ends, see {@link #readInto(ByteBuffer)}.
+	 * @return the number of ints read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public int readInts (int[] ints, ByteOrder order) {
+		return PrimitiveIO.read(this, PrimitiveIO.ints(ints), order);
+	}
+
+	/** Reads longs from the start of this file until the array is full or the file ends, see {@link #readInto(ByteBuffer)}.
+	 * @return the number of longs read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public int readLongs (long[] longs, ByteOrder order) {
+		return PrimitiveIO.read(this, PrimitiveIO.longs(longs), order);
+	}
+
+	/** Reads floats from the start of this file until the array is full or the file ends, see {@link #readInto(ByteBuffer)}.
+	 * @return the number of floats read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public int readFloats (float[] floats, ByteOrder order) {
+		return PrimitiveIO.read(this, PrimitiveIO.floats(floats), order);
+	}
+
+	/** Reads doubles from the start of this file until the array is full or the file ends, see {@link #readInto(ByteBuffer)}.
+	 * @return the number of doubles read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public int readDoubles (double[] doubles, ByteOrder order) {
+		return PrimitiveIO.read(this, PrimitiveIO.doubles(doubles), order);
+	}
+
+	/** Reads from the start of this file into the remaining space of the buffer, until it is full or the file ends. The typed
+	 * readers decode values from memory mapped regions of files on the filesystem and from a small direct buffer otherwise, so no
+	 * intermediate byte array of the file's size is ever allocated.
+	 * @return the number of bytes read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public int readInto (ByteBuffer buffer) {
+		return PrimitiveIO.readInto(this, buffer);
+	}
+
+	/** Reads from the start of this file into the buffers in order, filling each one before moving on to the next, until all of
+	 * them are full or the file ends. Files on the filesystem are read with scattering reads, so a header and a payload can be
+	 * read into separate buffers with a single system call.
+	 * @return the number of bytes read.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public long read (ByteBuffer... buffers) {
+		ReadableByteChannel channel = readChannel();
+		// Other channels are streams, which report themselves.
+		long start = channel instanceof FileChannel ? begin(Operation.Read) : 0;
+		long total = 0;
+		try {
+			if (channel instanceof ScatteringByteChannel) {
+				ScatteringByteChannel scattering = (ScatteringByteChannel)channel;
+				for (int i = 0, n = buffers.length; i < n;) {
+					if (!buffers[i].hasRemaining()) {
+						i++;
+						continue;
+					}
+					long count = scattering.read(buffers, i, n - i);
+					if (count == -1) break;
+					total += count;
+				}
+			} else {
+				for (int i = 0, n = buffers.length; i < n; i++) {
+					ByteBuffer buffer = buffers[i];
+					int count = 0;
+					while (buffer.hasRemaining() && (count = channel.read(buffer)) != -1)
+						total += count;
+					if (count == -1) break;
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
+		} finally {
+			closeQuietly(channel);
+		}
+		if (channel instanceof FileChannel) record(Operation.Read, total, start);
+		return total;
+	}
+
+	/** Reads the entire file into buffers of chunkSize bytes, the last one possibly shorter, so files larger than 2 GB can be
+	 * held in memory. Files on the filesystem are split into pieces that are read in parallel on the shared pool of the file
+	 * system with positional reads, keeping several requests in flight. Other files are read sequentially. The returned buffers
+	 * are positioned at zero with their limit at their length.
+	 * @param direct whether to allocate direct buffers instead of heap buffers.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public ByteBuffer[] readChunks (int chunkSize, boolean direct) {
+		return ChunkedIO.read(this, chunkSize, direct);
+	}
+
+	/** Writes the whole file to the channel, see {@link #transferTo(long, long, WritableByteChannel)}.
+	 * @return the number of bytes transferred.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public long transferTo (WritableByteChannel target) {
+		return transferTo(0, Long.MAX_VALUE, target);
+	}
+
+	/** Writes up to count bytes of this file, starting at the position, to the channel. Files on the filesystem are transferred
+	 * with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the operating system copy straight from the
+	 * page cache to the target, such as a socket, without the bytes passing through the Java heap. Classpath and asset files are
+	 * copied through a single reused buffer. The target should be in blocking mode and is not closed.
+	 * @return the number of bytes transferred, less than count if the file ends first.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public long transferTo (long position, long count, WritableByteChannel target) {
+		if (position < 0) throw new IllegalArgumentException("position cannot be < 0: " + position);
+		if (count < 0) throw new IllegalArgumentException("count cannot be < 0: " + count);
+		FileChannel channel = openChannel();
+		if (channel == null) {
+			// The stream reports itself.
+			InputStream input = read();
+			try {
+				return pump(input, position, count, target);
+			} catch (IOException ex) {
+				throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
+			} finally {
+				closeQuietly(input);
+			}
+		}
+		long start = begin(Operation.Read);
+		long total = 0;
+		try {
+			count = Math.min(count, Math.max(0, channel.size() - position));
+			while (total < count) {
+				long transferred = channel.transferTo(position + total, count - total, target);
+				if (transferred <= 0) break;
+				total += transferred;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file + " (" + type + ")", ex);
+		} finally {
+			closeQuietly(channel);
+			record(Operation.Read, total, start);
+		}
+		return total;
+	}
+
+	static private long pump (InputStream input, long position, long count, WritableByteChannel target) throws IOException {
+		while (position > 0) {
+			long skipped = input.skip(position);
+			if (skipped <= 0) {
+				// Some streams can't skip, fall back to reading.
+				if (input.read() == -1) return 0;
+				skipped = 1;
+			}
+			position -= skipped;
+		}
+		byte[] bytes = new byte[(int)Math.min(TRANSFER_BUFFER_SIZE, Math.max(1, count))];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long total = 0;
+		while (total < count) {
+			int length = input.read(bytes, 0, (int)Math.min(bytes.length, count - total));
+			if (length == -1) break;
+			buffer.clear().limit(length);
+			while (buffer.hasRemaining())
+				target.write(buffer);
+			total += length;
+		}
+		return total;
+	}
+
 	/** Returns a stream for writing to this file. Parent directories will be created if necessary.
 	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
 	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
@@ -276,9 +577,10 @@ public class FileHandle {
 	public OutputStream write (boolean append) {
 		if (type == FileType.Classpath) throw new RuntimeException("Cannot write to a classpath file: " + file);
 		if (type == FileType.Internal) throw new RuntimeException("Cannot write to an internal file: " + file);
+		long start = System.nanoTime();
 		parent().mkdirs();
 		try {
-			return new FileOutputStream(file(), append);
+			return track(new FileOutputStream(file(), append), start);
 		} catch (Exception ex) {
 			if (file().isDirectory())
 				throw new RuntimeException("Cannot open a stream to a directory: " + file + " (" + type + ")", ex);
@@ -314,6 +616,23 @@ public class FileHandle {
 
 	}
 
+	/** Returns a channel for writing to this file. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public FileChannel writeChannel (boolean append) {
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot write to a classpath file: " + file);
+		if (type == FileType.Internal) throw new RuntimeException("Cannot write to an internal file: " + file);
+		parent().mkdirs();
+		try {
+			return new FileOutputStream(file(), append).getChannel();
+		} catch (Exception ex) {
+			if (file().isDirectory())
+				throw new RuntimeException("Cannot open a stream to a directory: " + file + " (" + type + ")", ex);
+			throw new RuntimeException("Error writing file: " + file + " (" + type + ")", ex);
+		}
+	}
+
 	/** Returns a writer for writing to this file using the default charset. Parent directories will be created if necessary.
 	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
 	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
@@ -330,9 +649,10 @@ public class FileHandle {
 	public Writer writer (boolean append, String charset) {
 		if (type == FileType.Classpath) throw new RuntimeException("Cannot write to a classpath file: " + file);
 		if (type == FileType.Internal) throw new RuntimeException("Cannot write to an internal file: " + file);
+		long start = System.nanoTime();
 		parent().mkdirs();
 		try {
-			FileOutputStream output = new FileOutputStream(file(), append);
+			OutputStream output = track(new FileOutputStream(file(), append), start);
 			if (charset == null)
 				return new OutputStreamWriter(output);
 			else
@@ -399,18 +719,91 @@ public class FileHandle {
 		}
 	}
 
+	/** Writes the ints to the file. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void writeInts (int[] ints, ByteOrder order, boolean append) {
+		PrimitiveIO.write(this, PrimitiveIO.ints(ints), order, append);
+	}
+
+	/** Writes the longs to the file. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void writeLongs (long[] longs, ByteOrder order, boolean append) {
+		PrimitiveIO.write(this, PrimitiveIO.longs(longs), order, append);
+	}
+
+	/** Writes the floats to the file. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void writeFloats (float[] floats, ByteOrder order, boolean append) {
+		PrimitiveIO.write(this, PrimitiveIO.floats(floats), order, append);
+	}
+
+	/** Writes the doubles to the file. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void writeDoubles (double[] doubles, ByteOrder order, boolean append) {
+		PrimitiveIO.write(this, PrimitiveIO.doubles(doubles), order, append);
+	}
+
+	/** Writes the remaining bytes of all buffers to the file in order, using gathering writes, so separate buffers such as a
+	 * header and a payload don't have to be merged first. Parent directories will be created if necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void write (ByteBuffer[] buffers, boolean append) {
+		long start = begin(Operation.Write);
+		GatheringByteChannel channel = writeChannel(append);
+		long total = 0;
+		try {
+			for (int i = 0, n = buffers.length; i < n;) {
+				if (!buffers[i].hasRemaining()) {
+					i++;
+					continue;
+				}
+				total += channel.write(buffers, i, n - i);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + file + " (" + type + ")", ex);
+		} finally {
+			closeQuietly(channel);
+		}
+		record(Operation.Write, total, start);
+	}
+
+	/** Writes the remaining bytes of all buffers to the file in order, like {@link #write(ByteBuffer[], boolean)}, but sizes the
+	 * file up front and writes pieces of the buffers in parallel on the shared pool of the file system with positional writes. The
+	 * positions of the buffers are moved to their limits once everything is written. Parent directories will be created if
+	 * necessary.
+	 * @param append If false, this file will be overwritten if it exists, otherwise it will be appended.
+	 * @throws RuntimeException if this file handle represents a directory, if it is a {@link FileType#Classpath} or
+	 *            {@link FileType#Internal} file, or if it could not be written. */
+	public void writeChunks (ByteBuffer[] chunks, boolean append) {
+		ChunkedIO.write(this, chunks, append);
+	}
+
 	/** Returns the paths to the children of this directory. Returns an empty list if this file handle represents a file and not a
 	 * directory. On the desktop, an {@link FileType#Internal} handle to a directory on the classpath will return a zero length
 	 * array.
 	 * @throws RuntimeException if this file is an {@link FileType#Classpath} file. */
 	public FileHandle[] list () {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
-		String[] relativePaths = file().list();
-		if (relativePaths == null) return new FileHandle[0];
-		FileHandle[] handles = new FileHandle[relativePaths.length];
-		for (int i = 0, n = relativePaths.length; i < n; i++)
-			handles[i] = child(relativePaths[i]);
-		return handles;
+		long start = begin(Operation.List);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
+			String[] relativePaths = file().list();
+			if (relativePaths == null) return new FileHandle[0];
+			FileHandle[] handles = new FileHandle[relativePaths.length];
+			for (int i = 0, n = relativePaths.length; i < n; i++)
+				handles[i] = child(relativePaths[i]);
+			return handles;
+		} finally {
+			record(Operation.List, 0, start);
+		}
 	}
 
 	/** Returns the paths to the children of this directory that satisfy the specified filter. Returns an empty list if this file
@@ -419,25 +812,30 @@ public class FileHandle {
 	 * @param filter the {@link FileFilter} to filter files
 	 * @throws RuntimeException if this file is an {@link FileType#Classpath} file. */
 	public FileHandle[] list (FileFilter filter) {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
-		File file = file();
-		String[] relativePaths = file.list();
-		if (relativePaths == null) return new FileHandle[0];
-		FileHandle[] handles = new FileHandle[relativePaths.length];
-		int count = 0;
-		for (int i = 0, n = relativePaths.length; i < n; i++) {
-			String path = relativePaths[i];
-			FileHandle child = child(path);
-			if (!filter.accept(child.file())) continue;
-			handles[count] = child;
-			count++;
-		}
-		if (count < relativePaths.length) {
-			FileHandle[] newHandles = new FileHandle[count];
-			System.arraycopy(handles, 0, newHandles, 0, count);
-			handles = newHandles;
+		long start = begin(Operation.List);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
+			File file = file();
+			String[] relativePaths = file.list();
+			if (relativePaths == null) return new FileHandle[0];
+			FileHandle[] handles = new FileHandle[relativePaths.length];
+			int count = 0;
+			for (int i = 0, n = relativePaths.length; i < n; i++) {
+				String path = relativePaths[i];
+				FileHandle child = child(path);
+				if (!filter.accept(child.file())) continue;
+				handles[count] = child;
+				count++;
+			}
+			if (count < relativePaths.length) {
+				FileHandle[] newHandles = new FileHandle[count];
+				System.arraycopy(handles, 0, newHandles, 0, count);
+				handles = newHandles;
+			}
+			return handles;
+		} finally {
+			record(Operation.List, 0, start);
 		}
-		return handles;
 	}
 
 	/** Returns the paths to the children of this directory that satisfy the specified filter. Returns an empty list if this file
@@ -446,24 +844,29 @@ public class FileHandle {
 	 * @param filter the {@link FilenameFilter} to filter files
 	 * @throws RuntimeException if this file is an {@link FileType#Classpath} file. */
 	public FileHandle[] list (FilenameFilter filter) {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
-		File file = file();
-		String[] relativePaths = file.list();
-		if (relativePaths == null) return new FileHandle[0];
-		FileHandle[] handles = new FileHandle[relativePaths.length];
-		int count = 0;
-		for (int i = 0, n = relativePaths.length; i < n; i++) {
-			String path = relativePaths[i];
-			if (!filter.accept(file, path)) continue;
-			handles[count] = child(path);
-			count++;
-		}
-		if (count < relativePaths.length) {
-			FileHandle[] newHandles = new FileHandle[count];
-			System.arraycopy(handles, 0, newHandles, 0, count);
-			handles = newHandles;
+		long start = begin(Operation.List);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
+			File file = file();
+			String[] relativePaths = file.list();
+			if (relativePaths == null) return new FileHandle[0];
+			FileHandle[] handles = new FileHandle[relativePaths.length];
+			int count = 0;
+			for (int i = 0, n = relativePaths.length; i < n; i++) {
+				String path = relativePaths[i];
+				if (!filter.accept(file, path)) continue;
+				handles[count] = child(path);
+				count++;
+			}
+			if (count < relativePaths.length) {
+				FileHandle[] newHandles = new FileHandle[count];
+				System.arraycopy(handles, 0, newHandles, 0, count);
+				handles = newHandles;
+			}
+			return handles;
+		} finally {
+			record(Operation.List, 0, start);
 		}
-		return handles;
 	}
 
 	/** Returns the paths to the children of this directory with the specified suffix. Returns an empty list if this file handle
@@ -471,31 +874,41 @@ public class FileHandle {
 	 * will return a zero length array.
 	 * @throws RuntimeException if this file is an {@link FileType#Classpath} file. */
 	public FileHandle[] list (String suffix) {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
-		String[] relativePaths = file().list();
-		if (relativePaths == null) return new FileHandle[0];
-		FileHandle[] handles = new FileHandle[relativePaths.length];
-		int count = 0;
-		for (int i = 0, n = relativePaths.length; i < n; i++) {
-			String path = relativePaths[i];
-			if (!path.endsWith(suffix)) continue;
-			handles[count] = child(path);
-			count++;
-		}
-		if (count < relativePaths.length) {
-			FileHandle[] newHandles = new FileHandle[count];
-			System.arraycopy(handles, 0, newHandles, 0, count);
-			handles = newHandles;
+		long start = begin(Operation.List);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot list a classpath directory: " + file);
+			String[] relativePaths = file().list();
+			if (relativePaths == null) return new FileHandle[0];
+			FileHandle[] handles = new FileHandle[relativePaths.length];
+			int count = 0;
+			for (int i = 0, n = relativePaths.length; i < n; i++) {
+				String path = relativePaths[i];
+				if (!path.endsWith(suffix)) continue;
+				handles[count] = child(path);
+				count++;
+			}
+			if (count < relativePaths.length) {
+				FileHandle[] newHandles = new FileHandle[count];
+				System.arraycopy(handles, 0, newHandles, 0, count);
+				handles = newHandles;
+			}
+			return handles;
+		} finally {
+			record(Operation.List, 0, start);
 		}
-		return handles;
 	}
 
 	/** Returns true if this file is a directory. Always returns false for classpath files. On Android, an {@link FileType#Internal}
 	 * handle to an empty directory will return false. On the desktop, an {@link FileType#Internal} handle to a directory on the
 	 * classpath will return false. */
 	public boolean isDirectory () {
-		if (type == FileType.Classpath) return false;
-		return file().isDirectory();
+		long start = begin(Operation.IsDirectory);
+		try {
+			if (type == FileType.Classpath) return false;
+			return file().isDirectory();
+		} finally {
+			record(Operation.IsDirectory, 0, start);
+		}
 	}
 
 	/** Returns a handle to the child with the specified name. */
@@ -524,38 +937,66 @@ public class FileHandle {
 
 	/** @throws RuntimeException if this file handle is a {@link FileType#Classpath} or {@link FileType#Internal} file. */
 	public void mkdirs () {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot mkdirs with a classpath file: " + file);
-		if (type == FileType.Internal) throw new RuntimeException("Cannot mkdirs with an internal file: " + file);
-		file().mkdirs();
+		long start = begin(Operation.Mkdirs);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot mkdirs with a classpath file: " + file);
+			if (type == FileType.Internal) throw new RuntimeException("Cannot mkdirs with an internal file: " + file);
+			file().mkdirs();
+		} finally {
+			record(Operation.Mkdirs, 0, start);
+		}
 	}
 
 	/** Returns true if the file exists. On Android, a {@link FileType#Classpath} or {@link FileType#Internal} handle to a directory
 	 * will always return false. Note that this can be very slow for internal files on Android! */
 	public boolean exists () {
-		switch (type) {
-		case Internal:
-			if (file().exists()) return true;
-			// Fall through.
-		case Classpath:
-			return FileHandle.class.getResource("/" + file.getPath().replace('\\', '/')) != null;
+		long start = begin(Operation.Exists);
+		try {
+			switch (type) {
+			case Internal:
+				if (resolution != UNRESOLVED) return true;
+				if (file().exists()) {
+					resolution = ON_FILESYSTEM;
+					return true;
+				}
+				// Fall through.
+			case Classpath:
+				long resolveStart = begin(Operation.Resolve);
+				boolean found = FileHandle.class.getResource("/" + file.getPath().replace('\\', '/')) != null;
+				record(Operation.Resolve, 0, resolveStart);
+				if (found && type == FileType.Internal) resolution = ON_CLASSPATH;
+				return found;
+			}
+			return file().exists();
+		} finally {
+			record(Operation.Exists, 0, start);
 		}
-		return file().exists();
 	}
 
 	/** Deletes this file or empty directory and returns success. Will not delete a directory that has children.
 	 * @throws RuntimeException if this file handle is a {@link FileType#Classpath} or {@link FileType#Internal} file. */
 	public boolean delete () {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
-		if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
-		return file().delete();
+		long start = begin(Operation.Delete);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
+			if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
+			return file().delete();
+		} finally {
+			record(Operation.Delete, 0, start);
+		}
 	}
 
 	/** Deletes this file or directory and all children, recursively.
 	 * @throws RuntimeException if this file handle is a {@link FileType#Classpath} or {@link FileType#Internal} file. */
 	public boolean deleteDirectory () {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
-		if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
-		return deleteDirectory(file());
+		long start = begin(Operation.Delete);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
+			if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
+			return deleteDirectory(file());
+		} finally {
+			record(Operation.Delete, 0, start);
+		}
 	}
 
 	/** Deletes all children of this directory, recursively.
@@ -567,9 +1008,14 @@ public class FileHandle {
 	/** Deletes all children of this directory, recursively. Optionally preserving the folder structure.
 	 * @throws RuntimeException if this file handle is a {@link FileType#Classpath} or {@link FileType#Internal} file. */
 	public void emptyDirectory (boolean preserveTree) {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
-		if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
-		emptyDirectory(file(), preserveTree);
+		long start = begin(Operation.Delete);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot delete a classpath file: " + file);
+			if (type == FileType.Internal) throw new RuntimeException("Cannot delete an internal file: " + file);
+			emptyDirectory(file(), preserveTree);
+		} finally {
+			record(Operation.Delete, 0, start);
+		}
 	}
 
 	/** Copies this file or directory to the specified file or directory. If this handle is a file, then 1) if the destination is a
@@ -581,54 +1027,152 @@ public class FileHandle {
 	 * @throws RuntimeException if the destination file handle is a {@link FileType#Classpath} or {@link FileType#Internal}
 	 *            file, or copying failed. */
 	public void copyTo (FileHandle dest) {
-		boolean sourceDir = isDirectory();
-		if (!sourceDir) {
-			if (dest.isDirectory()) dest = dest.child(name());
-			copyFile(this, dest);
-			return;
-		}
-		if (dest.exists()) {
-			if (!dest.isDirectory()) throw new RuntimeException("Destination exists but is not a directory: " + dest);
-		} else {
-			dest.mkdirs();
-			if (!dest.isDirectory()) throw new RuntimeException("Destination directory cannot be created: " + dest);
+		long start = begin(Operation.Copy);
+		try {
+			boolean sourceDir = isDirectory();
+			if (!sourceDir) {
+				if (dest.isDirectory()) dest = dest.child(name());
+				copyFile(this, dest);
+				return;
+			}
+			if (dest.exists()) {
+				if (!dest.isDirectory()) throw new RuntimeException("Destination exists but is not a directory: " + dest);
+			} else {
+				dest.mkdirs();
+				if (!dest.isDirectory()) throw new RuntimeException("Destination directory cannot be created: " + dest);
+			}
+			if (!sourceDir) dest = dest.child(name());
+			copyDirectory(this, dest);
+		} finally {
+			record(Operation.Copy, 0, start);
 		}
-		if (!sourceDir) dest = dest.child(name());
-		copyDirectory(this, dest);
+	}
+
+	/** Makes the specified file or directory a copy of this one, copying only what changed. Files are considered unchanged if
+	 * their length and last modified time match, or their checksums if {@link SyncOptions#compareChecksums} is set. Copied files
+	 * get the last modified time of their source. Destination resolution follows {@link #copyTo(FileHandle)}, except that a
+	 * directory is synced onto the destination directory itself.
+	 * @param options may be null to use the defaults.
+	 * @return the changes that were made.
+	 * @throws RuntimeException if the destination file handle is a {@link FileType#Classpath} or {@link FileType#Internal}
+	 *            file, or copying failed. */
+	public SyncReport syncTo (FileHandle dest, SyncOptions options) {
+		return FileSync.sync(this, dest, options);
 	}
 
 	/** Moves this file to the specified file, overwriting the file if it already exists.
 	 * @throws RuntimeException if the source or destination file handle is a {@link FileType#Classpath} or
 	 *            {@link FileType#Internal} file. */
 	public void moveTo (FileHandle dest) {
-		if (type == FileType.Classpath) throw new RuntimeException("Cannot move a classpath file: " + file);
-		if (type == FileType.Internal) throw new RuntimeException("Cannot move an internal file: " + file);
-		copyTo(dest);
-		delete();
-		if (exists() && isDirectory()) deleteDirectory();
+		long start = begin(Operation.Move);
+		try {
+			if (type == FileType.Classpath) throw new RuntimeException("Cannot move a classpath file: " + file);
+			if (type == FileType.Internal) throw new RuntimeException("Cannot move an internal file: " + file);
+			copyTo(dest);
+			delete();
+			if (exists() && isDirectory()) deleteDirectory();
+		} finally {
+			record(Operation.Move, 0, start);
+		}
+	}
+
+	/** Renames the file over the file of this handle, replacing it. Where the platform supports it the file is replaced in one
+	 * step, so readers see either the old or the new contents even after a crash. Otherwise the old file is deleted first, and
+	 * for a moment there is none.
+	 * @param source a file in the same directory.
+	 * @throws IOException if the file could not be renamed. */
+	protected void replaceWith (File source) throws IOException {
+		File file = file();
+		if (source.renameTo(file)) return;
+		// Windows doesn't replace existing files on rename.
+		file.delete();
+		if (!source.renameTo(file)) throw new IOException("Unable to rename " + source + " to " + file);
 	}
 
 	/** Returns the length in bytes of this file, or 0 if this file is a directory, does not exist, or the size cannot otherwise be
 	 * determined. */
 	public long length () {
-		if (type == FileType.Classpath || (type == FileType.Internal && !file.exists())) {
-			InputStream input = read();
-			try {
-				return input.available();
-			} catch (Exception ignored) {
-			} finally {
-				closeQuietly(input);
+		long start = begin(Operation.Length);
+		try {
+			if (type == FileType.Classpath || (type == FileType.Internal && resolve() == null)) {
+				InputStream input = read();
+				try {
+					return input.available();
+				} catch (Exception ignored) {
+				} finally {
+					closeQuietly(input);
+				}
+				return 0;
 			}
-			return 0;
+			return file().length();
+		} finally {
+			record(Operation.Length, 0, start);
 		}
-		return file().length();
 	}
 
 	/** Returns the last modified time in milliseconds for this file. Zero is returned if the file doesn't exist. Zero is returned
 	 * for {@link FileType#Classpath} files. On Android, zero is returned for {@link FileType#Internal} files. On the desktop, zero
 	 * is returned for {@link FileType#Internal} files on the classpath. */
 	public long lastModified () {
-		return file().lastModified();
+		long start = begin(Operation.LastModified);
+		try {
+			return file().lastModified();
+		} finally {
+			record(Operation.LastModified, 0, start);
+		}
+	}
+
+	/** Computes the checksum of this file. Files on the filesystem are read through memory mapped buffers.
+	 * @return the checksum as big-endian bytes.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public byte[] checksum (Algorithm algorithm) {
+		return Checksums.checksum(this, algorithm);
+	}
+
+	/** Builds the index of the offsets at which the lines of this file start, so any line can be read without scanning the file.
+	 * Files on the filesystem are scanned through memory mapped regions in parallel, see {@link LineIndex}.
+	 * @throws RuntimeException if the file handle represents a directory, doesn't exist, or could not be read. */
+	public LineIndex lineIndex () {
+		return LineIndex.build(this);
+	}
+
+	/** Loads the line index of this file from the sidecar file if it was saved for the current length and last modified time of
+	 * this file, otherwise builds it and saves it to the sidecar, see {@link #lineIndex()}.
+	 * @throws RuntimeException if this file could not be read or the sidecar could not be written. */
+	public LineIndex lineIndex (FileHandle sidecar) {
+		return LineIndex.load(this, sidecar);
+	}
+
+	/** Locks this file for the current thread, waiting until no other thread or process holds a conflicting lock. Any number of
+	 * shared locks can be held at once, an exclusive lock only while no other lock is held. The file is created if it doesn't
+	 * exist. The lock has to be released by the thread that acquired it, see {@link FileHandleLock}.
+	 * @param shared whether to take a shared lock for reading, otherwise an exclusive lock for writing.
+	 * @throws RuntimeException if this file is a {@link FileType#Classpath} or {@link FileType#Internal} file, could not be
+	 *            locked or the thread was interrupted. */
+	public FileHandleLock lock (boolean shared) {
+		return FileHandleLock.lock(this, shared);
+	}
+
+	/** Locks this file for the current thread like {@link #lock(boolean)}, but waits at most the timeout.
+	 * @return the lock, or null if it could not be acquired in time.
+	 * @throws RuntimeException if this file is a {@link FileType#Classpath} or {@link FileType#Internal} file or could not be
+	 *            locked. */
+	public FileHandleLock tryLock (boolean shared, long timeout, TimeUnit unit) throws InterruptedException {
+		return FileHandleLock.tryLock(this, shared, timeout, unit);
+	}
+
+	/** Computes the {@link Algorithm#Sha256} digest of this directory, see {@link #directoryDigest(Algorithm)}. */
+	public byte[] directoryDigest () {
+		return directoryDigest(Algorithm.Sha256);
+	}
+
+	/** Computes a digest of this directory and all of its children. The digest of a directory is the hash of the names, kinds and
+	 * digests of its children sorted by name, so two trees have the same digest only if their structure and contents match. File
+	 * checksums are cached by path, length and last modified time, so digesting a tree again only rereads the files that changed.
+	 * If this handle is a file, its checksum is returned.
+	 * @throws RuntimeException if a file could not be read. */
+	public byte[] directoryDigest (Algorithm algorithm) {
+		return Checksums.directoryDigest(this, algorithm);
 	}
 
 	@Override
@@ -650,6 +1194,8 @@ public class FileHandle {
 		return file.getPath().replace('\\', '/');
 	}
 
+	/** Creates an empty file in java.io.tmpdir that is never deleted automatically, see {@link TempStorage} for scratch files
+	 * that are. */
 	static public FileHandle tempFile (Files files, String prefix) {
 		try {
 			return new FileHandle(files, File.createTempFile(prefix, null));
@@ -658,6 +1204,8 @@ public class FileHandle {
 		}
 	}
 
+	/** Creates an empty directory in java.io.tmpdir that is never deleted automatically, see {@link TempStorage} for scratch
+	 * directories that are. */
 	static public FileHandle tempDirectory (Files files, String prefix) {
 		try {
 			File file = File.createTempFile(prefix, null);
@@ -690,7 +1238,7 @@ public class FileHandle {
 		return file.delete();
 	}
 
-	static private void copyFile (FileHandle source, FileHandle dest) {
+	static void copyFile (FileHandle source, FileHandle dest) {
 		try {
 			dest.write(source.read(), false);
 		} catch (Exception ex) {
@@ -712,7 +1260,7 @@ public class FileHandle {
 		}
 	}
 
-	static private void closeQuietly (Closeable c) {
+	static void closeQuietly (Closeable c) {
 		if (c != null) {
 			try {
 				c.close();
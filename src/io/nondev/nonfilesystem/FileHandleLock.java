@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** A shared or exclusive lock on a file, held by one thread, returned by {@link FileHandle#lock(boolean)} and
+ * {@link FileHandle#tryLock(boolean, long, TimeUnit)}. Handles to the same file, even through different {@link Files}
+ * instances, use the same lock.
+ * 
+ * Inside the process, every file that is locked or waited for has a read/write lock of its own, kept by canonical path only
+ * while it is in use. The map of these is split into stripes by the hash of the path, so unrelated files rarely wait for each
+ * other to look up their lock. Across processes, the first thread to lock a file also takes a {@link FileLock} on the whole
+ * file, which is released when no thread in the process holds or waits for it anymore.
+ * 
+ * The lock is reentrant. Inside the process an exclusive lock can be downgraded by taking a shared lock before releasing it; the
+ * lock other processes see stays exclusive as long as any thread of the process holds or waits for the file. A shared lock
+ * can't be upgraded, trying to take an exclusive lock while holding a shared one fails instead of waiting forever. Whether other
+ * processes are kept out depends on the operating system, on some the locks are only advisory. */
+public final class FileHandleLock implements Closeable {
+	static private final int STRIPES = 64;
+	/** Files locked or waited for by threads of this process, by canonical path, split by the hash of the path. */
+	static private final Map<String, ProcessLock>[] processLocks = newStripes();
+
+	private final FileHandle file;
+	private final boolean shared;
+	private final ProcessLock processLock;
+	private boolean released;
+
+	private FileHandleLock (FileHandle file, boolean shared, ProcessLock processLock) {
+		this.file = file;
+		this.shared = shared;
+		this.processLock = processLock;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static private Map<String, ProcessLock>[] newStripes () {
+		Map<String, ProcessLock>[] stripes = new Map[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new HashMap<String, ProcessLock>();
+		return stripes;
+	}
+
+	/** Waits for the lock, see {@link FileHandle#lock(boolean)}. */
+	static FileHandleLock lock (FileHandle file, boolean shared) {
+		try {
+			return acquire(file, shared, -1);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while locking file: " + file + " (" + file.type() + ")", ex);
+		}
+	}
+
+	/** Waits at most the timeout for the lock, see {@link FileHandle#tryLock(boolean, long, TimeUnit)}. */
+	static FileHandleLock tryLock (FileHandle file, boolean shared, long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(file, shared, Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/** @param timeout nanoseconds to wait, -1 to wait forever.
+	 * @return the lock, or null if the timeout elapsed. */
+	static private FileHandleLock acquire (FileHandle file, boolean shared, long timeout) throws InterruptedException {
+		FileType type = file.type();
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot lock a classpath file: " + file);
+		if (type == FileType.Internal) throw new RuntimeException("Cannot lock an internal file: " + file);
+		long deadline = System.nanoTime() + timeout;
+		String path = canonicalPath(file.file());
+		Map<String, ProcessLock> stripe = processLocks[(path.hashCode() & 0x7fffffff) % STRIPES];
+		ProcessLock processLock;
+		synchronized (stripe) {
+			processLock = stripe.get(path);
+			if (processLock == null) {
+				processLock = new ProcessLock(path, stripe);
+				stripe.put(path, processLock);
+			}
+			processLock.holders++;
+		}
+		boolean acquired = false;
+		try {
+			ReentrantReadWriteLock threads = processLock.threads;
+			if (!shared && threads.getReadHoldCount() > 0 && !threads.isWriteLockedByCurrentThread())
+				throw new RuntimeException("Cannot upgrade a shared lock to an exclusive lock: " + file + " (" + type + ")");
+			Lock threadLock = shared ? threads.readLock() : threads.writeLock();
+			if (timeout == -1)
+				threadLock.lock();
+			else if (!threadLock.tryLock(timeout, TimeUnit.NANOSECONDS)) return null;
+			try {
+				acquired = processLock.acquire(file, shared, timeout == -1 ? -1 : deadline);
+			} finally {
+				if (!acquired) threadLock.unlock();
+			}
+		} finally {
+			if (!acquired) release(processLock);
+		}
+		return acquired ? new FileHandleLock(file, shared, processLock) : null;
+	}
+
+	static private String canonicalPath (File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException ex) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	static private void release (ProcessLock processLock) {
+		synchronized (processLock.stripe) {
+			if (--processLock.holders > 0) return;
+			processLock.stripe.remove(processLock.path);
+			// Closed before another thread can lock the file again, the JVM doesn't allow overlapping locks.
+			processLock.close();
+		}
+	}
+
+	public FileHandle file () {
+		return file;
+	}
+
+	public boolean isShared () {
+		return shared;
+	}
+
+	/** Releases the lock. Must be called by the thread that acquired it. Does nothing if the lock is already released. */
+	public void release () {
+		if (released) return;
+		ReentrantReadWriteLock threads = processLock.threads;
+		if (shared ? threads.getReadHoldCount() == 0 : !threads.isWriteLockedByCurrentThread())
+			throw new IllegalMonitorStateException("Lock is held by another thread: " + file);
+		released = true;
+		release(processLock);
+		if (shared)
+			threads.readLock().unlock();
+		else
+			threads.writeLock().unlock();
+	}
+
+	/** Same as {@link #release()}, so the lock can be used in try-with-resources statements. */
+	public void close () {
+		release();
+	}
+
+	/** The lock of this process on a file, shared by the threads holding a lock on it. The read/write lock of the file
+	 * guarantees that these are either readers or a single writer. */
+	static private class ProcessLock {
+		final String path;
+		final Map<String, ProcessLock> stripe;
+		/** Keeps out the other threads of the process. */
+		final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+		/** Threads holding or waiting for a lock on the file, guarded by the stripe. */
+		int holders;
+		/** Guards acquiring and closing the lock, so only the first thread takes it. */
+		final ReentrantLock guard = new ReentrantLock();
+		RandomAccessFile access;
+		FileLock lock;
+
+		ProcessLock (String path, Map<String, ProcessLock> stripe) {
+			this.path = path;
+			this.stripe = stripe;
+		}
+
+		/** @param deadline the value of {@link System#nanoTime()} to give up at, -1 to wait forever.
+		 * @return whether the lock is held. */
+		boolean acquire (FileHandle file, boolean shared, long deadline) throws InterruptedException {
+			if (deadline == -1)
+				guard.lockInterruptibly();
+			else if (!guard.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+			try {
+				if (lock != null) {
+					// An exclusive lock also covers a shared one, this is how a downgrade keeps the file exclusive.
+					if (shared || !lock.isShared()) return true;
+					// Left by readers that are gone, as this thread holds the write lock. Waiters kept it from being closed.
+					lock.release();
+					lock = null;
+				}
+				if (access == null) {
+					file.parent().mkdirs();
+					access = new RandomAccessFile(path, "rw");
+				}
+				FileChannel channel = access.getChannel();
+				if (deadline == -1) {
+					lock = channel.lock(0, Long.MAX_VALUE, shared);
+					return true;
+				}
+				while (true) {
+					lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+					if (lock != null) return true;
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) return false;
+					Thread.sleep(Math.min(10, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining))));
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("Error locking file: " + file + " (" + file.type() + ")", ex);
+			} finally {
+				guard.unlock();
+			}
+		}
+
+		void close () {
+			guard.lock();
+			try {
+				if (lock != null) lock.release();
+			} catch (IOException ignored) {
+			} finally {
+				lock = null;
+				FileHandle.closeQuietly(access);
+				access = null;
+				guard.unlock();
+			}
+		}
+	}
+}
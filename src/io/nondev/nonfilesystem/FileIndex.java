@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** In-memory index of the names and extensions of all files in a directory tree, so lookups such as "all png files under
+ * textures" or "where is the file named player.json" don't have to list the tree again. The tree is listed once on
+ * construction; afterwards the index has to be told about changes through {@link #add(FileHandle)}, {@link #remove(FileHandle)}
+ * and {@link #refresh(FileHandle)}, which the desktop backend's <code>FileIndexWatcher</code> does automatically from filesystem
+ * change notifications.
+ * 
+ * Paths are kept sorted, so every query restricted to a directory is a range lookup instead of a scan. All methods are thread
+ * safe. */
+public class FileIndex {
+	private final FileHandle root;
+	private final String rootPath;
+	/** The root path ending in a separator, which filesystem roots such as <code>/</code> already do. */
+	private final String prefix;
+	private final TreeMap<String, FileHandle> files = new TreeMap<String, FileHandle>();
+	private final Set<String> directories = new HashSet<String>();
+	private final Map<String, List<FileHandle>> byName = new HashMap<String, List<FileHandle>>();
+	private final Map<String, TreeMap<String, FileHandle>> byExtension = new HashMap<String, TreeMap<String, FileHandle>>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Creates the index by listing the whole tree under the root directory. */
+	public FileIndex (FileHandle root) {
+		this.root = root;
+		this.rootPath = root.path();
+		this.prefix = rootPath.length() == 0 || rootPath.endsWith("/") ? rootPath : rootPath + "/";
+		refresh(root);
+	}
+
+	public FileHandle root () {
+		return root;
+	}
+
+	/** @return the number of files in the index, directories are not counted. */
+	public int size () {
+		lock.readLock().lock();
+		try {
+			return files.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** @param path the path of the file relative to the root, with forward slashes.
+	 * @return the file, or null if it is not in the index. */
+	public FileHandle get (String path) {
+		lock.readLock().lock();
+		try {
+			return files.get(path);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** @return all files with the specified name, without any parent paths, in the whole tree. */
+	public FileHandle[] findByName (String name) {
+		lock.readLock().lock();
+		try {
+			List<FileHandle> found = byName.get(name);
+			return found == null ? new FileHandle[0] : found.toArray(new FileHandle[found.size()]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** @param extension the extension without the dot, see {@link FileHandle#extension()}.
+	 * @return all files with the specified extension in the whole tree, sorted by path. */
+	public FileHandle[] findByExtension (String extension) {
+		return findByExtension(extension, root);
+	}
+
+	/** @param extension the extension without the dot, see {@link FileHandle#extension()}.
+	 * @param dir the directory to search, either the root or one of its descendants.
+	 * @return all files with the specified extension under the directory, recursively, sorted by path. */
+	public FileHandle[] findByExtension (String extension, FileHandle dir) {
+		lock.readLock().lock();
+		try {
+			TreeMap<String, FileHandle> found = byExtension.get(extension);
+			if (found == null) return new FileHandle[0];
+			Collection<FileHandle> matches = under(found, relative(dir)).values();
+			return matches.toArray(new FileHandle[matches.size()]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** @return all files under the directory, recursively, sorted by path. */
+	public FileHandle[] list (FileHandle dir) {
+		lock.readLock().lock();
+		try {
+			Collection<FileHandle> matches = under(files, relative(dir)).values();
+			return matches.toArray(new FileHandle[matches.size()]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Adds the file to the index. If it is a directory, its whole tree is listed and added. */
+	public void add (FileHandle file) {
+		String path = relative(file);
+		if (file.isDirectory()) {
+			List<FileHandle> found = new ArrayList<FileHandle>();
+			List<String> foundDirectories = new ArrayList<String>();
+			scan(file, found, foundDirectories, new HashSet<String>());
+			lock.writeLock().lock();
+			try {
+				if (path.length() > 0) directories.add(path);
+				directories.addAll(foundDirectories);
+				for (int i = 0, n = found.size(); i < n; i++)
+					put(found.get(i));
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} else {
+			lock.writeLock().lock();
+			try {
+				put(file);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/** Removes the file from the index. If it was a directory, its whole tree is removed. The file doesn't have to exist anymore. */
+	public void remove (FileHandle file) {
+		String path = relative(file);
+		lock.writeLock().lock();
+		try {
+			removePath(path);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Lists the file or directory again and replaces everything the index knows about it. */
+	public void refresh (FileHandle file) {
+		String path = relative(file);
+		List<FileHandle> found = new ArrayList<FileHandle>();
+		List<String> foundDirectories = new ArrayList<String>();
+		boolean directory = file.isDirectory();
+		boolean exists = directory || file.exists();
+		if (directory) scan(file, found, foundDirectories, new HashSet<String>());
+		lock.writeLock().lock();
+		try {
+			removePath(path);
+			if (!exists) return;
+			if (!directory)
+				put(file);
+			else {
+				if (path.length() > 0) directories.add(path);
+				directories.addAll(foundDirectories);
+				for (int i = 0, n = found.size(); i < n; i++)
+					put(found.get(i));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** @return the path of the file relative to the root.
+	 * @throws IllegalArgumentException if the file is not the root or one of its descendants. */
+	private String relative (FileHandle file) {
+		String path = file.path();
+		if (path.equals(rootPath)) return "";
+		if (path.startsWith(prefix)) return path.substring(prefix.length());
+		throw new IllegalArgumentException("File is not under the indexed root " + root + ": " + file);
+	}
+
+	/** Lists the tree under the directory. Directories that are one of their own ancestors through a symbolic link are added
+	 * but not listed, so link loops end.
+	 * @param ancestors the canonical paths of the directories being listed. */
+	private void scan (FileHandle dir, List<FileHandle> found, List<String> foundDirectories, Set<String> ancestors) {
+		String canonical = canonicalPath(dir);
+		if (canonical != null && !ancestors.add(canonical)) return;
+		FileHandle[] children = dir.list();
+		for (int i = 0, n = children.length; i < n; i++) {
+			FileHandle child = children[i];
+			if (child.isDirectory()) {
+				foundDirectories.add(relative(child));
+				scan(child, found, foundDirectories, ancestors);
+			} else
+				found.add(child);
+		}
+		if (canonical != null) ancestors.remove(canonical);
+	}
+
+	/** @return the canonical path of the directory, or null for {@link FileType#Classpath} directories, which can't loop. */
+	static private String canonicalPath (FileHandle dir) {
+		if (dir.type() == FileType.Classpath) return null;
+		File file = dir.file();
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException ex) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	private void put (FileHandle file) {
+		String path = relative(file);
+		if (files.put(path, file) != null) return;
+		List<FileHandle> named = byName.get(file.name());
+		if (named == null) byName.put(file.name(), named = new ArrayList<FileHandle>(1));
+		named.add(file);
+		TreeMap<String, FileHandle> extension = byExtension.get(file.extension());
+		if (extension == null) byExtension.put(file.extension(), extension = new TreeMap<String, FileHandle>());
+		extension.put(path, file);
+	}
+
+	private void removePath (String path) {
+		if (path.length() == 0) {
+			files.clear();
+			directories.clear();
+			byName.clear();
+			byExtension.clear();
+			return;
+		}
+		FileHandle file = files.remove(path);
+		if (file != null) unlink(file);
+		if (!directories.remove(path)) return;
+		for (Iterator<Map.Entry<String, FileHandle>> iter = under(files, path).entrySet().iterator(); iter.hasNext();) {
+			unlink(iter.next().getValue());
+			iter.remove();
+		}
+		String prefix = path + '/';
+		for (Iterator<String> iter = directories.iterator(); iter.hasNext();)
+			if (iter.next().startsWith(prefix)) iter.remove();
+	}
+
+	private void unlink (FileHandle file) {
+		List<FileHandle> named = byName.get(file.name());
+		if (named != null) {
+			named.remove(file);
+			if (named.isEmpty()) byName.remove(file.name());
+		}
+		TreeMap<String, FileHandle> extension = byExtension.get(file.extension());
+		if (extension != null) {
+			extension.remove(relative(file));
+			if (extension.isEmpty()) byExtension.remove(file.extension());
+		}
+	}
+
+	/** @return the entries of the map whose keys are under the directory path, all of them for the root. */
+	static private SortedMap<String, FileHandle> under (TreeMap<String, FileHandle> map, String dir) {
+		if (dir.length() == 0) return map;
+		// '0' is the character following '/', so this range covers exactly the paths starting with "dir/".
+		return map.subMap(dir + '/', dir + '0');
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Receives measurements of the operations performed through the {@link FileHandle}s of a {@link Files} instance, see
+ * {@link Files#setMetrics(FileMetrics)}. Implementations are called from whichever thread performs the operation, so they have
+ * to be thread safe and should return quickly. {@link FileMetricsRecorder} collects the measurements in memory.
+ * 
+ * Streams returned by {@link FileHandle#read()}, {@link FileHandle#write(boolean)} and the reader and writer methods are reported
+ * twice: {@link #streamOpened(FileHandle, Operation)} when they are created and
+ * {@link #streamClosed(FileHandle, Operation, long, long)} once they are closed. Methods that read or write the whole file, such as
+ * {@link FileHandle#readBytes()}, go through these streams. Other operations are reported when they start with
+ * {@link #started(FileHandle, Operation)} and when they finish with {@link #record(FileHandle, Operation, long, long)}. */
+public interface FileMetrics {
+	/** The kinds of operations that are measured. */
+	public enum Operation {
+		/** A stream reading the file. */
+		Read,
+
+		/** A stream writing the file. */
+		Write,
+
+		/** Listing the children of a directory. */
+		List,
+
+		/** {@link FileHandle#exists()}. */
+		Exists,
+
+		/** {@link FileHandle#isDirectory()}. */
+		IsDirectory,
+
+		/** {@link FileHandle#length()}. */
+		Length,
+
+		/** {@link FileHandle#lastModified()}. */
+		LastModified,
+
+		/** {@link FileHandle#mkdirs()}. */
+		Mkdirs,
+
+		/** Deleting a file or a directory tree. */
+		Delete,
+
+		/** {@link FileHandle#copyTo(FileHandle)}, the streams it opens are reported separately. */
+		Copy,
+
+		/** {@link FileHandle#moveTo(FileHandle)}, the operations it performs are reported separately. */
+		Move,
+
+		/** Looking up an {@link FileType#Internal} or {@link FileType#Local} file on the classpath after it was not found on the
+		 * filesystem, or a {@link FileType#Classpath} file. Reported in addition to the operation that needed the lookup. */
+		Resolve;
+	}
+
+	/** Metrics that ignore all measurements, used when no metrics are installed. */
+	static public final FileMetrics NONE = new FileMetrics() {
+		@Override
+		public void started (FileHandle file, Operation operation) {
+		}
+
+		@Override
+		public void record (FileHandle file, Operation operation, long bytes, long nanos) {
+		}
+
+		@Override
+		public void streamOpened (FileHandle file, Operation operation) {
+		}
+
+		@Override
+		public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos) {
+		}
+	};
+
+	/** Called on the thread performing an operation when it starts. The matching
+	 * {@link #record(FileHandle, Operation, long, long)} follows on the same thread, after those of the operations it performs
+	 * itself, such as {@link Operation#Resolve}. Operations that fail early, and some that are performed on other threads, are
+	 * recorded without being started. */
+	public void started (FileHandle file, Operation operation);
+
+	/** Called when an operation finished, successfully or not.
+	 * @param bytes the number of bytes transferred, zero for operations that transfer no data.
+	 * @param nanos how long the operation took. */
+	public void record (FileHandle file, Operation operation, long bytes, long nanos);
+
+	/** Called when a stream for {@link Operation#Read} or {@link Operation#Write} was opened. */
+	public void streamOpened (FileHandle file, Operation operation);
+
+	/** Called when a stream reported by {@link #streamOpened(FileHandle, Operation)} was closed.
+	 * @param bytes the number of bytes read or written through the stream.
+	 * @param nanos how long the stream was open, including the time it took to open it. */
+	public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos);
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** {@link FileMetrics} that keeps the measurements in memory: operation counts, transferred bytes, open streams and latency
+ * histograms per {@link Operation} and {@link FileType}, plus the totals per path to find the hottest files. Recording never
+ * blocks, counters are striped by thread so concurrent threads don't contend on the same memory.
+ * 
+ * <pre>
+ * FileMetricsRecorder recorder = new FileMetricsRecorder();
+ * files.setMetrics(recorder);
+ * ...
+ * System.out.println(recorder.report(20));
+ * </pre> */
+public class FileMetricsRecorder implements FileMetrics {
+	static private final int STRIPES = 16;
+	static private final int OPERATIONS = Operation.values().length;
+	static private final int TYPES = FileType.values().length;
+	static private final int SLOTS = OPERATIONS * TYPES;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SLOTS * STRIPES);
+	private final AtomicLongArray bytes = new AtomicLongArray(SLOTS * STRIPES);
+	private final AtomicLongArray streams = new AtomicLongArray(SLOTS * STRIPES);
+	private final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<LatencyHistogram>(SLOTS);
+	private final ConcurrentMap<FileHandle, PathStats> paths = new ConcurrentHashMap<FileHandle, PathStats>();
+	private final AtomicInteger pathCount = new AtomicInteger();
+	private final int maxPaths;
+
+	/** Creates a recorder tracking at most 4096 distinct paths. */
+	public FileMetricsRecorder () {
+		this(4096);
+	}
+
+	/** @param maxPaths the maximum number of distinct paths to track for {@link #getHottestPaths(int)}. Operations on paths seen
+	 *           after the limit was reached are still counted in all other statistics. */
+	public FileMetricsRecorder (int maxPaths) {
+		this.maxPaths = maxPaths;
+	}
+
+	@Override
+	public void started (FileHandle file, Operation operation) {
+	}
+
+	@Override
+	public void record (FileHandle file, Operation operation, long bytes, long nanos) {
+		int slot = slot(operation, file.type());
+		int index = stripe() * SLOTS + slot;
+		counts.incrementAndGet(index);
+		if (bytes != 0) this.bytes.addAndGet(index, bytes);
+		latency(slot).record(nanos);
+		PathStats stats = pathStats(file);
+		if (stats != null) stats.add(bytes, nanos);
+	}
+
+	@Override
+	public void streamOpened (FileHandle file, Operation operation) {
+		streams.incrementAndGet(stripe() * SLOTS + slot(operation, file.type()));
+	}
+
+	@Override
+	public void streamClosed (FileHandle file, Operation operation, long bytes, long nanos) {
+		streams.decrementAndGet(stripe() * SLOTS + slot(operation, file.type()));
+		record(file, operation, bytes, nanos);
+	}
+
+	/** @return the number of finished operations of the specified kind on files of the specified type. */
+	public long getCount (Operation operation, FileType type) {
+		return sum(counts, slot(operation, type));
+	}
+
+	/** @return the number of finished operations of the specified kind on files of all types. */
+	public long getCount (Operation operation) {
+		long count = 0;
+		for (FileType type : FileType.values())
+			count += getCount(operation, type);
+		return count;
+	}
+
+	/** @return the number of bytes transferred by the specified kind of operation on files of the specified type. */
+	public long getBytes (Operation operation, FileType type) {
+		return sum(bytes, slot(operation, type));
+	}
+
+	/** @return the number of bytes transferred by the specified kind of operation on files of all types. */
+	public long getBytes (Operation operation) {
+		long count = 0;
+		for (FileType type : FileType.values())
+			count += getBytes(operation, type);
+		return count;
+	}
+
+	/** @return the number of {@link Operation#Read} or {@link Operation#Write} streams to files of the specified type that are
+	 *         currently open. */
+	public long getOpenStreams (Operation operation, FileType type) {
+		return sum(streams, slot(operation, type));
+	}
+
+	/** @return the number of streams that are currently open. */
+	public long getOpenStreams () {
+		long count = 0;
+		for (int slot = 0; slot < SLOTS; slot++)
+			count += sum(streams, slot);
+		return count;
+	}
+
+	/** @return the latency histogram in nanoseconds of the specified kind of operation on files of the specified type. */
+	public LatencyHistogram getLatency (Operation operation, FileType type) {
+		return latency(slot(operation, type));
+	}
+
+	/** @return the statistics of at most count paths, sorted by the total time spent in operations on them, highest first. */
+	public List<PathStats> getHottestPaths (int count) {
+		List<PathStats> hottest = new ArrayList<PathStats>(paths.values());
+		Collections.sort(hottest, new Comparator<PathStats>() {
+			@Override
+			public int compare (PathStats a, PathStats b) {
+				long nanosA = a.getNanos(), nanosB = b.getNanos();
+				return nanosA < nanosB ? 1 : nanosA > nanosB ? -1 : 0;
+			}
+		});
+		return hottest.size() > count ? new ArrayList<PathStats>(hottest.subList(0, count)) : hottest;
+	}
+
+	/** @return a human readable summary of all operations that happened, followed by the specified number of hottest paths. */
+	public String report (int hottestPaths) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("operation type count bytes open mean(us) p50(us) p99(us) max(us)\n");
+		for (Operation operation : Operation.values()) {
+			for (FileType type : FileType.values()) {
+				long count = getCount(operation, type);
+				if (count == 0) continue;
+				LatencyHistogram latency = getLatency(operation, type);
+				builder.append(operation).append(' ').append(type).append(' ').append(count).append(' ');
+				builder.append(getBytes(operation, type)).append(' ').append(getOpenStreams(operation, type)).append(' ');
+				builder.append((long)latency.getMean() / 1000).append(' ');
+				builder.append(latency.getValueAtPercentile(50) / 1000).append(' ');
+				builder.append(latency.getValueAtPercentile(99) / 1000).append(' ');
+				builder.append(latency.getMax() / 1000).append('\n');
+			}
+		}
+		List<PathStats> hottest = getHottestPaths(hottestPaths);
+		if (!hottest.isEmpty()) {
+			builder.append("path type count bytes total(us)\n");
+			for (PathStats stats : hottest)
+				builder.append(stats).append('\n');
+		}
+		return builder.toString();
+	}
+
+	private PathStats pathStats (FileHandle file) {
+		PathStats stats = paths.get(file);
+		if (stats != null || pathCount.get() >= maxPaths) return stats;
+		PathStats created = new PathStats(file.path(), file.type());
+		stats = paths.putIfAbsent(file, created);
+		if (stats != null) return stats;
+		pathCount.incrementAndGet();
+		return created;
+	}
+
+	private LatencyHistogram latency (int slot) {
+		LatencyHistogram latency = latencies.get(slot);
+		if (latency != null) return latency;
+		latencies.compareAndSet(slot, null, new LatencyHistogram());
+		return latencies.get(slot);
+	}
+
+	static private int slot (Operation operation, FileType type) {
+		return operation.ordinal() * TYPES + type.ordinal();
+	}
+
+	static private int stripe () {
+		return (int)(Thread.currentThread().getId() * 0x9E3779B9L) >>> 28;
+	}
+
+	static private long sum (AtomicLongArray array, int slot) {
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++)
+			sum += array.get(stripe * SLOTS + slot);
+		return sum;
+	}
+
+	/** Totals of all operations performed on a single path. */
+	static public class PathStats {
+		private final String path;
+		private final FileType type;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+
+		PathStats (String path, FileType type) {
+			this.path = path;
+			this.type = type;
+		}
+
+		void add (long bytes, long nanos) {
+			count.incrementAndGet();
+			if (bytes != 0) this.bytes.addAndGet(bytes);
+			this.nanos.addAndGet(nanos);
+		}
+
+		public String getPath () {
+			return path;
+		}
+
+		public FileType getType () {
+			return type;
+		}
+
+		/** @return the number of finished operations on this path. */
+		public long getCount () {
+			return count.get();
+		}
+
+		/** @return the number of bytes read from and written to this path. */
+		public long getBytes () {
+			return bytes.get();
+		}
+
+		/** @return the total time in nanoseconds spent in operations on this path. */
+		public long getNanos () {
+			return nanos.get();
+		}
+
+		@Override
+		public String toString () {
+			return path + " " + type + " " + getCount() + " " + getBytes() + " " + getNanos() / 1000;
+		}
+	}
+}
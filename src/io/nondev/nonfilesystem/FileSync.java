@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Implementation of {@link FileHandle#syncTo(FileHandle, SyncOptions)}. The trees are walked and directories are created and
+ * deleted on the calling thread, only the copying of changed files is handed to the shared pool. */
+final class FileSync {
+	private final SyncOptions options;
+	private final SyncReport report = new SyncReport();
+	private final List<Future<Object>> copies = new ArrayList<Future<Object>>();
+
+	private FileSync (SyncOptions options) {
+		this.options = options;
+	}
+
+	static SyncReport sync (FileHandle source, FileHandle dest, SyncOptions options) {
+		if (dest.type() == FileType.Classpath) throw new RuntimeException("Cannot sync to a classpath file: " + dest);
+		if (dest.type() == FileType.Internal) throw new RuntimeException("Cannot sync to an internal file: " + dest);
+		FileSync sync = new FileSync(options == null ? new SyncOptions() : options);
+		try {
+			if (source.isDirectory())
+				sync.syncDirectory(source, dest);
+			else {
+				if (dest.isDirectory()) dest = dest.child(source.name());
+				sync.syncFile(source, dest);
+			}
+		} finally {
+			sync.await();
+		}
+		return sync.report;
+	}
+
+	private void syncDirectory (FileHandle sourceDir, FileHandle destDir) {
+		if (destDir.exists() && !destDir.isDirectory()) {
+			if (!options.deleteExtraneous) throw new RuntimeException("Destination exists but is not a directory: " + destDir);
+			destDir.delete();
+			report.deleted(destDir);
+		}
+		destDir.mkdirs();
+		if (!destDir.isDirectory()) throw new RuntimeException("Destination directory cannot be created: " + destDir);
+
+		FileHandle[] children = sourceDir.list();
+		Set<String> names = new HashSet<String>();
+		for (int i = 0, n = children.length; i < n; i++) {
+			FileHandle child = children[i];
+			FileHandle target = destDir.child(child.name());
+			names.add(child.name());
+			if (child.isDirectory())
+				syncDirectory(child, target);
+			else {
+				if (target.isDirectory()) {
+					if (!options.deleteExtraneous) throw new RuntimeException("Destination exists but is a directory: " + target);
+					target.deleteDirectory();
+					report.deleted(target);
+				}
+				syncFile(child, target);
+			}
+		}
+
+		if (!options.deleteExtraneous) return;
+		FileHandle[] existing = destDir.list();
+		for (int i = 0, n = existing.length; i < n; i++) {
+			FileHandle extra = existing[i];
+			if (names.contains(extra.name())) continue;
+			extra.deleteDirectory();
+			report.deleted(extra);
+		}
+	}
+
+	private void syncFile (final FileHandle source, final FileHandle dest) {
+		if (!changed(source, dest)) {
+			report.unchanged();
+			return;
+		}
+		if (!options.parallel) {
+			copy(source, dest);
+			return;
+		}
+		copies.add(FileExecutor.get().submit(new Callable<Object>() {
+			@Override
+			public Object call () {
+				copy(source, dest);
+				return null;
+			}
+		}));
+	}
+
+	private void copy (FileHandle source, FileHandle dest) {
+		FileHandle.copyFile(source, dest);
+		long lastModified = source.lastModified();
+		// Carry over the modification time, so the next sync can tell the files are equal without reading them.
+		if (lastModified != 0) dest.file().setLastModified(lastModified);
+		report.copied(dest, dest.length());
+	}
+
+	private boolean changed (FileHandle source, FileHandle dest) {
+		if (!dest.exists() || source.length() != dest.length()) return true;
+		long lastModified = source.lastModified();
+		if (options.compareChecksums || lastModified == 0)
+			return !Arrays.equals(source.checksum(options.algorithm), dest.checksum(options.algorithm));
+		return Math.abs(lastModified - dest.lastModified()) > options.modifyWindow;
+	}
+
+	/** Waits for all pending copies, rethrowing the first failure once all of them have finished. */
+	private void await () {
+		RuntimeException failure = null;
+		boolean interrupted = false;
+		for (int i = 0, n = copies.size(); i < n; i++) {
+			try {
+				copies.get(i).get();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+				i--;
+			} catch (ExecutionException ex) {
+				if (failure != null) continue;
+				Throwable cause = ex.getCause();
+				failure = cause instanceof RuntimeException ? (RuntimeException)cause : new RuntimeException(cause);
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		if (failure != null) throw failure;
+	}
+}
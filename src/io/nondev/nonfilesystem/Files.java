@@ -29,6 +29,8 @@
 
 package io.nondev.nonfilesystem;
 
+import java.util.Collection;
+
 /** Provides standard access to the filesystem, classpath, Android SD card, and Android assets directory.
  * @author mzechner
  * @author Nathan Sweet */
@@ -93,4 +95,17 @@ public interface Files {
 
 	/** Returns true if the local storage is ready for file IO. */
 	public boolean isLocalStorageAvailable ();
+
+	/** Returns the metrics receiving measurements of the operations on file handles created by this instance. Never null, defaults
+	 * to {@link FileMetrics#NONE}. */
+	public FileMetrics getMetrics ();
+
+	/** Sets the metrics receiving measurements of the operations on file handles created by this instance.
+	 * @param metrics may be null to stop measuring. */
+	public void setMetrics (FileMetrics metrics);
+
+	/** Reads the files into one contiguous heap buffer instead of one byte array each, see {@link FileArena#load(Collection, boolean)}
+	 * to load them outside of the Java heap.
+	 * @throws RuntimeException if a file handle represents a directory, doesn't exist, or could not be read. */
+	public FileArena loadArena (Collection<FileHandle> files);
 }
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** Runs file operations on its own threads in order of priority, so background work such as copying or prefetching doesn't
+ * delay operations something is waiting for. Every operation belongs to the root of the file it works on, by default the file
+ * type or, for absolute files, the top level directory, and each root runs at most a limited number of operations at once so
+ * a single slow device can't take all threads. Within a priority, roots take turns, so a root with a long queue doesn't starve
+ * the others. A queued operation that waited longer than the aging limit runs before newer ones of higher priority, so
+ * background work always progresses eventually.
+ * 
+ * Returned futures can be cancelled; a queued operation is removed from the queue, a running one is interrupted if requested.
+ * All methods are thread safe. */
+public class IOScheduler implements Closeable {
+	public enum Priority {
+		/** Operations something is waiting for, such as loading a file that is needed right now. */
+		Foreground,
+		Normal,
+		/** Operations nothing is waiting for yet, such as prefetching, copying or deleting. */
+		Background;
+	}
+
+	static private final Priority[] priorities = Priority.values();
+
+	private final Object lock = new Object();
+	private final Map<String, Root> roots = new HashMap<String, Root>();
+	private final List<Root> order = new ArrayList<Root>();
+	private final int[] cursors = new int[priorities.length];
+	private final int[] queued = new int[priorities.length];
+	private final Thread[] workers;
+	private final int maxPerRoot;
+	private long agingNanos = TimeUnit.SECONDS.toNanos(1);
+	private boolean closed;
+
+	/** Creates a scheduler with as many threads as the shared pool and at most four operations per root at once. */
+	public IOScheduler () {
+		this(FileExecutor.threads(), 4);
+	}
+
+	/** @param threads the number of threads running operations.
+	 * @param maxPerRoot the number of operations each root runs at most at once, unless changed with
+	 *           {@link #setMaxConcurrency(String, int)}. */
+	public IOScheduler (int threads, int maxPerRoot) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be > 0: " + threads);
+		if (maxPerRoot <= 0) throw new IllegalArgumentException("maxPerRoot must be > 0: " + maxPerRoot);
+		this.maxPerRoot = maxPerRoot;
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run () {
+					work();
+				}
+			}, "nonfilesystem-io-" + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/** Sets how many operations the root runs at most at once, see {@link #root(FileHandle)}. */
+	public void setMaxConcurrency (String root, int max) {
+		if (max <= 0) throw new IllegalArgumentException("max must be > 0: " + max);
+		synchronized (lock) {
+			root(root).max = max;
+			lock.notifyAll();
+		}
+	}
+
+	/** Sets how long a queued operation waits at most before it runs ahead of operations of higher priority. Defaults to one
+	 * second. */
+	public void setAgingLimit (long time, TimeUnit unit) {
+		synchronized (lock) {
+			agingNanos = unit.toNanos(time);
+		}
+	}
+
+	/** @return the number of operations of the priority waiting to run. */
+	public int getQueued (Priority priority) {
+		synchronized (lock) {
+			return queued[priority.ordinal()];
+		}
+	}
+
+	/** Returns the root the operations on the file count against. Files of the same root are assumed to be on the same device.
+	 * Override this to map paths to devices more precisely. */
+	protected String root (FileHandle file) {
+		if (file.type() != FileType.Absolute) return file.type().name();
+		File root = file.file().getAbsoluteFile(), parent;
+		while ((parent = root.getParentFile()) != null && parent.getParentFile() != null)
+			root = parent;
+		return root.getPath();
+	}
+
+	/** Queues the operation on the file.
+	 * @return a future for the result of the operation.
+	 * @throws RejectedExecutionException if the scheduler was closed. */
+	public <T> Future<T> submit (FileHandle file, Priority priority, Callable<T> operation) {
+		String root = root(file);
+		synchronized (lock) {
+			if (closed) throw new RejectedExecutionException("The scheduler was closed.");
+			Task<T> task = new Task<T>(root(root), priority, operation);
+			task.root.queues[priority.ordinal()].add(task);
+			queued[priority.ordinal()]++;
+			lock.notify();
+			return task;
+		}
+	}
+
+	/** Queues reading the file into a byte array, see {@link FileHandle#readBytes()}. */
+	public Future<byte[]> readBytes (final FileHandle file, Priority priority) {
+		return submit(file, priority, new Callable<byte[]>() {
+			@Override
+			public byte[] call () {
+				return file.readBytes();
+			}
+		});
+	}
+
+	/** Queues copying the file or directory, see {@link FileHandle#copyTo(FileHandle)}. The operation counts against the root of
+	 * the destination. */
+	public Future<FileHandle> copyTo (final FileHandle file, final FileHandle dest, Priority priority) {
+		return submit(dest, priority, new Callable<FileHandle>() {
+			@Override
+			public FileHandle call () {
+				file.copyTo(dest);
+				return dest;
+			}
+		});
+	}
+
+	/** Queues deleting the directory and its children, see {@link FileHandle#deleteDirectory()}. */
+	public Future<Boolean> deleteDirectory (final FileHandle file, Priority priority) {
+		return submit(file, priority, new Callable<Boolean>() {
+			@Override
+			public Boolean call () {
+				return file.deleteDirectory();
+			}
+		});
+	}
+
+	/** Cancels all queued operations and stops the threads once the running operations finish. */
+	public void close () {
+		List<Task<?>> cancelled = new ArrayList<Task<?>>();
+		synchronized (lock) {
+			if (closed) return;
+			closed = true;
+			for (Root root : order) {
+				for (ArrayDeque<Task<?>> queue : root.queues) {
+					cancelled.addAll(queue);
+					queue.clear();
+				}
+			}
+			for (int i = 0; i < queued.length; i++)
+				queued[i] = 0;
+			lock.notifyAll();
+		}
+		for (Task<?> task : cancelled)
+			task.cancel(false);
+	}
+
+	private Root root (String name) {
+		Root root = roots.get(name);
+		if (root == null) {
+			root = new Root(maxPerRoot);
+			roots.put(name, root);
+			order.add(root);
+		}
+		return root;
+	}
+
+	private void work () {
+		while (true) {
+			Task<?> task;
+			synchronized (lock) {
+				while ((task = next()) == null) {
+					if (closed) return;
+					try {
+						lock.wait();
+					} catch (InterruptedException ignored) {
+					}
+				}
+			}
+			try {
+				task.run();
+			} finally {
+				// Clear an interrupt from cancelling the task, so it doesn't hit the next one.
+				Thread.interrupted();
+				synchronized (lock) {
+					task.root.running--;
+					lock.notify();
+				}
+			}
+		}
+	}
+
+	/** Removes the next task to run from the queues, or returns null if no root with queued tasks may run another one. */
+	private Task<?> next () {
+		long now = System.nanoTime();
+		// Tasks that waited too long first, starting with the lowest priority.
+		for (int p = priorities.length - 1; p > 0; p--) {
+			if (queued[p] == 0) continue;
+			for (int i = 0, n = order.size(); i < n; i++) {
+				Root root = order.get(i);
+				Task<?> head = root.queues[p].peek();
+				if (head != null && root.running < root.max && now - head.queuedTime > agingNanos) return take(root, p);
+			}
+		}
+		for (int p = 0; p < priorities.length; p++) {
+			if (queued[p] == 0) continue;
+			for (int i = 0, n = order.size(); i < n; i++) {
+				int index = (cursors[p] + i) % n;
+				Root root = order.get(index);
+				if (root.running < root.max && !root.queues[p].isEmpty()) {
+					cursors[p] = index + 1;
+					return take(root, p);
+				}
+			}
+		}
+		return null;
+	}
+
+	private Task<?> take (Root root, int priority) {
+		root.running++;
+		queued[priority]--;
+		return root.queues[priority].poll();
+	}
+
+	static private class Root {
+		@SuppressWarnings({"unchecked", "rawtypes"}) final ArrayDeque<Task<?>>[] queues = new ArrayDeque[priorities.length];
+		int max;
+		int running;
+
+		Root (int max) {
+			this.max = max;
+			for (int i = 0; i < queues.length; i++)
+				queues[i] = new ArrayDeque<Task<?>>();
+		}
+	}
+
+	private class Task<T> extends FutureTask<T> {
+		final Root root;
+		final int priority;
+		final long queuedTime = System.nanoTime();
+
+		Task (Root root, Priority priority, Callable<T> operation) {
+			super(operation);
+			this.root = root;
+			this.priority = priority.ordinal();
+		}
+
+		@Override
+		public boolean cancel (boolean mayInterruptIfRunning) {
+			synchronized (lock) {
+				if (root.queues[priority].remove(this)) queued[priority]--;
+			}
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+}
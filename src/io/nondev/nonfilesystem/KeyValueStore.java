@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import io.nondev.nonfilesystem.Files.FileType;
+
+/** An embedded key-value store keeping its data in log segments in a directory, meant to replace settings files that are
+ * rewritten completely on every change. Each change is appended to the newest segment as a record with a CRC32, so updates
+ * cost the size of the change, and a crash can only lose the record that was being written: records that fail their check are
+ * cut off when the store is opened again. Only the location of the newest record of every key is kept in memory; values are
+ * read from the segments on demand.
+ * 
+ * When a segment grows past the segment size a new one is started. Once at least half of the bytes in the older segments are
+ * records that were replaced or removed, the live records are copied to the newest segment on the shared pool of the file
+ * system and the old segments are deleted. Changes are written to the operating system right away but only forced to the disk
+ * by {@link #sync()} and {@link #close()}. All methods are thread safe. */
+public class KeyValueStore implements Closeable {
+	/** Bytes before the key of a record: the CRC32 of the rest of the record, the key length and the value length. */
+	static private final int HEADER = 12;
+	/** Value length of a record removing its key. */
+	static private final int REMOVED = -1;
+	static private final Charset UTF8 = Charset.forName("UTF-8");
+	static private final String SUFFIX = ".log";
+
+	private final FileHandle directory;
+	private final long segmentSize;
+	private final Map<String, Entry> index = new HashMap<String, Entry>();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+	private final CRC32 crc = new CRC32();
+	/** Held while compacting, so compactions don't overlap and {@link #close()} can wait for one to finish. */
+	private final Object compactionLock = new Object();
+	private Segment active;
+	private boolean compactionScheduled;
+	private boolean closed;
+
+	/** Opens the store in the directory with segments of 4 MB, see {@link #KeyValueStore(FileHandle, long)}. */
+	public KeyValueStore (FileHandle directory) {
+		this(directory, 4 * 1024 * 1024);
+	}
+
+	/** Opens the store in the directory, creating it if necessary, and reads the keys of all segments.
+	 * @param segmentSize the number of bytes after which a new segment is started.
+	 * @throws RuntimeException if the directory is a {@link FileType#Classpath} or {@link FileType#Internal} file or the segments
+	 *            could not be read. */
+	public KeyValueStore (FileHandle directory, long segmentSize) {
+		if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize must be > 0: " + segmentSize);
+		FileType type = directory.type();
+		if (type == FileType.Classpath) throw new RuntimeException("Cannot write to a classpath file: " + directory);
+		if (type == FileType.Internal) throw new RuntimeException("Cannot write to an internal file: " + directory);
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		directory.mkdirs();
+		String[] names = directory.file().list();
+		if (names == null) throw new RuntimeException("Error opening store: " + directory + " (" + type + ")");
+		int[] ids = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (!name.endsWith(SUFFIX)) continue;
+			try {
+				ids[count++] = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+			} catch (NumberFormatException ignored) {
+				count--;
+			}
+		}
+		Arrays.sort(ids, 0, count);
+		synchronized (this) {
+			try {
+				for (int i = 0; i < count; i++) {
+					Segment segment = new Segment(ids[i], segmentFile(ids[i]));
+					segments.put(segment.id, segment);
+					load(segment);
+				}
+				if (segments.isEmpty() || segments.lastEntry().getValue().size >= segmentSize)
+					roll();
+				else
+					active = segments.lastEntry().getValue();
+			} catch (IOException ex) {
+				for (Segment segment : segments.values())
+					segment.close();
+				throw new RuntimeException("Error opening store: " + directory + " (" + type + ")", ex);
+			}
+			scheduleCompaction();
+		}
+	}
+
+	private File segmentFile (int id) {
+		return new File(directory.file(), String.format("%08d", id) + SUFFIX);
+	}
+
+	/** Adds the records of the segment to the index, cutting the segment off at the first record that is incomplete or fails its
+	 * check. */
+	private void load (Segment segment) throws IOException {
+		long length = segment.access.length();
+		long position = 0;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024));
+		try {
+			byte[] record = new byte[256];
+			while (position + HEADER <= length) {
+				int checksum = input.readInt();
+				int keyLength = input.readInt();
+				int valueLength = input.readInt();
+				if (keyLength < 0 || valueLength < REMOVED) break;
+				long recordLength = (long)HEADER + keyLength + Math.max(valueLength, 0);
+				if (position + recordLength > length) break;
+				if (record.length < recordLength) record = new byte[(int)recordLength];
+				ByteBuffer.wrap(record).putInt(0).putInt(keyLength).putInt(valueLength);
+				input.readFully(record, HEADER, (int)recordLength - HEADER);
+				crc.reset();
+				crc.update(record, 4, (int)recordLength - 4);
+				if ((int)crc.getValue() != checksum) break;
+				String key = new String(record, HEADER, keyLength, UTF8);
+				apply(key, new Entry(segment, position, keyLength, valueLength));
+				position += recordLength;
+			}
+		} catch (EOFException ignored) {
+		} finally {
+			input.close();
+		}
+		segment.size = position;
+		if (position < length) segment.access.setLength(position);
+	}
+
+	private void apply (String key, Entry entry) {
+		Entry previous = entry.valueLength == REMOVED ? index.remove(key) : index.put(key, entry);
+		if (previous != null) previous.segment.garbage += previous.length();
+		if (entry.valueLength == REMOVED) entry.segment.garbage += entry.length();
+	}
+
+	/** Starts a new segment, the older ones are never written again. */
+	private void roll () throws IOException {
+		int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+		active = new Segment(id, segmentFile(id));
+		segments.put(id, active);
+	}
+
+	private void scheduleCompaction () {
+		if (compactionScheduled || closed) return;
+		long size = 0, garbage = 0;
+		for (Segment segment : segments.headMap(active.id).values()) {
+			size += segment.size;
+			garbage += segment.garbage;
+		}
+		if (size == 0 || garbage * 2 < size) return;
+		compactionScheduled = true;
+		FileExecutor.get().execute(new Runnable() {
+			@Override
+			public void run () {
+				synchronized (KeyValueStore.this) {
+					compactionScheduled = false;
+				}
+				try {
+					compact(false);
+				} catch (RuntimeException ignored) {
+					// Compaction is retried when the next segment is started.
+				}
+			}
+		});
+	}
+
+	public FileHandle directory () {
+		return directory;
+	}
+
+	/** @return the value of the key, or null if there is none.
+	 * @throws RuntimeException if the value could not be read or the store is closed. */
+	public byte[] get (String key) {
+		while (true) {
+			Entry entry;
+			synchronized (this) {
+				checkOpen();
+				entry = index.get(key);
+			}
+			if (entry == null) return null;
+			try {
+				byte[] value = read(entry);
+				if (value != null) return value;
+				// The segment was deleted by a compaction, the key is in a newer one now.
+			} catch (IOException ex) {
+				throw new RuntimeException("Error reading file: " + entry.segment.file + " (" + directory.type() + ")", ex);
+			}
+		}
+	}
+
+	/** @return the value of the key, or null if the segment of the entry has been closed. */
+	private byte[] read (Entry entry) throws IOException {
+		byte[] value = new byte[entry.valueLength];
+		Segment segment = entry.segment;
+		synchronized (segment) {
+			if (segment.closed) return null;
+			segment.access.seek(entry.position + HEADER + entry.keyLength);
+			segment.access.readFully(value);
+		}
+		return value;
+	}
+
+	/** @return the value of the key decoded as UTF-8, or null if there is none. */
+	public String getString (String key) {
+		byte[] value = get(key);
+		return value == null ? null : new String(value, UTF8);
+	}
+
+	/** @return the value of the key decoded as UTF-8, or the default value if there is none. */
+	public String getString (String key, String defaultValue) {
+		byte[] value = get(key);
+		return value == null ? defaultValue : new String(value, UTF8);
+	}
+
+	/** Sets the value of the key, replacing the previous one.
+	 * @throws RuntimeException if the record could not be written or the store is closed. */
+	public void put (String key, byte[] value) {
+		if (value == null) throw new IllegalArgumentException("value cannot be null.");
+		synchronized (this) {
+			checkOpen();
+			append(key, value);
+		}
+	}
+
+	/** Sets the value of the key to the string encoded as UTF-8. */
+	public void putString (String key, String value) {
+		if (value == null) throw new IllegalArgumentException("value cannot be null.");
+		put(key, value.getBytes(UTF8));
+	}
+
+	/** Removes the key.
+	 * @return whether the key had a value.
+	 * @throws RuntimeException if the record could not be written or the store is closed. */
+	public synchronized boolean remove (String key) {
+		checkOpen();
+		if (!index.containsKey(key)) return false;
+		append(key, null);
+		return true;
+	}
+
+	public synchronized boolean contains (String key) {
+		checkOpen();
+		return index.containsKey(key);
+	}
+
+	/** @return the number of keys with a value. */
+	public synchronized int size () {
+		checkOpen();
+		return index.size();
+	}
+
+	/** @return a snapshot of the keys with a value. */
+	public synchronized List<String> keys () {
+		checkOpen();
+		return new ArrayList<String>(index.keySet());
+	}
+
+	/** Writes a record to the active segment and adds it to the index. Must be called while holding the lock of the store.
+	 * @param value the value, null to remove the key. */
+	private void append (String key, byte[] value) {
+		byte[] keyBytes = key.getBytes(UTF8);
+		int valueLength = value == null ? REMOVED : value.length;
+		byte[] record = new byte[HEADER + keyBytes.length + Math.max(valueLength, 0)];
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		buffer.putInt(0).putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+		if (value != null) buffer.put(value);
+		crc.reset();
+		crc.update(record, 4, record.length - 4);
+		buffer.putInt(0, (int)crc.getValue());
+		Segment segment = active;
+		try {
+			synchronized (segment) {
+				segment.access.seek(segment.size);
+				segment.access.write(record);
+				segment.dirty = true;
+			}
+			apply(key, new Entry(segment, segment.size, keyBytes.length, valueLength));
+			segment.size += record.length;
+			if (segment.size >= segmentSize) {
+				roll();
+				scheduleCompaction();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + segment.file + " (" + directory.type() + ")", ex);
+		}
+	}
+
+	/** Starts a new segment and copies the live records of all older segments to it, then deletes them. Runs on the calling
+	 * thread, waiting for a compaction running in the background to finish first.
+	 * @throws RuntimeException if a segment could not be read or written or the store is closed. */
+	public void compact () {
+		synchronized (this) {
+			checkOpen();
+			try {
+				if (active.size > 0) roll();
+			} catch (IOException ex) {
+				throw new RuntimeException("Error writing file: " + directory + " (" + directory.type() + ")", ex);
+			}
+		}
+		compact(true);
+	}
+
+	private void compact (boolean force) {
+		synchronized (compactionLock) {
+			List<Segment> sealed;
+			Map<String, Entry> live = new HashMap<String, Entry>();
+			synchronized (this) {
+				if (closed) return;
+				sealed = new ArrayList<Segment>(segments.headMap(active.id).values());
+				if (sealed.isEmpty()) return;
+				if (!force) {
+					long size = 0, garbage = 0;
+					for (Segment segment : sealed) {
+						size += segment.size;
+						garbage += segment.garbage;
+					}
+					if (garbage * 2 < size) return;
+				}
+				for (Map.Entry<String, Entry> entry : index.entrySet())
+					if (entry.getValue().segment.id < active.id) live.put(entry.getKey(), entry.getValue());
+			}
+			try {
+				for (Map.Entry<String, Entry> entry : live.entrySet()) {
+					byte[] value = read(entry.getValue());
+					synchronized (this) {
+						if (closed || value == null) return;
+						// Keys that were changed in the meantime already have a newer record.
+						if (index.get(entry.getKey()) == entry.getValue()) append(entry.getKey(), value);
+					}
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("Error reading file: " + directory + " (" + directory.type() + ")", ex);
+			}
+			// Every segment the live records were copied to must be on the disk before the originals are deleted.
+			sync();
+			// The oldest segments go first, so a crash in between never leaves an older record without the newer ones.
+			synchronized (this) {
+				if (closed) return;
+				for (Segment segment : sealed) {
+					segments.remove(segment.id);
+					segment.close();
+					segment.file.delete();
+				}
+			}
+		}
+	}
+
+	/** Forces the changes written so far to the disk, including those in segments that were sealed since the last sync.
+	 * @throws RuntimeException if a segment could not be synced or the store is closed. */
+	public void sync () {
+		List<Segment> dirty = new ArrayList<Segment>();
+		synchronized (this) {
+			checkOpen();
+			for (Segment segment : segments.values())
+				if (segment.dirty) dirty.add(segment);
+		}
+		for (Segment segment : dirty) {
+			try {
+				segment.sync();
+			} catch (IOException ex) {
+				throw new RuntimeException("Error writing file: " + segment.file + " (" + directory.type() + ")", ex);
+			}
+		}
+	}
+
+	private void checkOpen () {
+		if (closed) throw new IllegalStateException("Store is closed: " + directory);
+	}
+
+	/** Syncs and closes the segments, waiting for a running compaction to stop. Does nothing if the store is already closed. */
+	public void close () {
+		synchronized (this) {
+			if (closed) return;
+			try {
+				sync();
+			} finally {
+				closed = true;
+			}
+		}
+		synchronized (compactionLock) {
+			synchronized (this) {
+				for (Segment segment : segments.values())
+					segment.close();
+				segments.clear();
+				index.clear();
+			}
+		}
+	}
+
+	static private class Segment {
+		final int id;
+		final File file;
+		final RandomAccessFile access;
+		/** Bytes of complete records, where the next record is written. */
+		long size;
+		/** Bytes of records that were replaced or removed, or that remove a key. */
+		long garbage;
+		/** Whether records were written since the segment was last synced. */
+		boolean dirty;
+		boolean closed;
+
+		Segment (int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			access = new RandomAccessFile(file, "rw");
+		}
+
+		synchronized void sync () throws IOException {
+			if (closed || !dirty) return;
+			access.getFD().sync();
+			dirty = false;
+		}
+
+		synchronized void close () {
+			if (closed) return;
+			closed = true;
+			FileHandle.closeQuietly(access);
+		}
+	}
+
+	static private class Entry {
+		final Segment segment;
+		final long position;
+		final int keyLength;
+		final int valueLength;
+
+		Entry (Segment segment, long position, int keyLength, int valueLength) {
+			this.segment = segment;
+			this.position = position;
+			this.keyLength = keyLength;
+			this.valueLength = valueLength;
+		}
+
+		long length () {
+			return HEADER + keyLength + Math.max(valueLength, 0);
+		}
+	}
+}
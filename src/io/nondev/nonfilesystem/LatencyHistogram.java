@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Lock-free histogram of non-negative values, such as latencies in nanoseconds. Values are counted in logarithmic buckets, each
+ * power of two is split into 16 linear sub-buckets, so every reported value is within 6.25% of the recorded one while the whole
+ * range of a long fits into less than a thousand counters. */
+public class LatencyHistogram {
+	static private final int SUB_BITS = 4;
+	static private final int SUB_COUNT = 1 << SUB_BITS;
+	static private final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/** Records the value, negative values are counted as zero. */
+	public void record (long value) {
+		if (value < 0) value = 0;
+		buckets.incrementAndGet(index(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long current;
+		while (value > (current = max.get()))
+			if (max.compareAndSet(current, value)) break;
+	}
+
+	/** @return the number of recorded values. */
+	public long getCount () {
+		return count.get();
+	}
+
+	/** @return the sum of all recorded values. */
+	public long getTotal () {
+		return total.get();
+	}
+
+	/** @return the highest recorded value, or zero if no values were recorded. */
+	public long getMax () {
+		return max.get();
+	}
+
+	/** @return the mean of all recorded values, or zero if no values were recorded. */
+	public double getMean () {
+		long count = this.count.get();
+		return count == 0 ? 0 : (double)total.get() / count;
+	}
+
+	/** Returns the value below which the specified percentage of recorded values fall, e.g. 99 for the 99th percentile.
+	 * @return the upper bound of the bucket containing the percentile, or zero if no values were recorded. */
+	public long getValueAtPercentile (double percentile) {
+		long count = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts[i] = buckets.get(i);
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	static private int index (long value) {
+		if (value < SUB_COUNT) return (int)value;
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+		return (magnitude - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static private long upperBound (int index) {
+		if (index < SUB_COUNT) return index;
+		int magnitude = index / SUB_COUNT + SUB_BITS - 1;
+		long lower = (long)(SUB_COUNT + index % SUB_COUNT) << (magnitude - SUB_BITS);
+		return lower + (1L << (magnitude - SUB_BITS)) - 1;
+	}
+
+	@Override
+	public String toString () {
+		return "count=" + getCount() + " mean=" + (long)getMean() + " p50=" + getValueAtPercentile(50) + " p99="
+			+ getValueAtPercentile(99) + " max=" + getMax();
+	}
+}
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/** The offsets at which the lines of a text file start, so any line or range of lines can be read without scanning the file
+ * from the beginning. Lines end at a line feed; a carriage return before it is not part of the line, so the index works for
+ * any charset in which a line feed is the single byte 10, such as UTF-8, ISO-8859-1 and US-ASCII. Files on the filesystem are
+ * scanned through memory mapped regions on the shared pool, one region per thread.
+ * 
+ * The index describes the file at the time it was built; {@link #isValid()} tells whether the file has changed since. It can
+ * be saved to a sidecar file with {@link #save(FileHandle)} and loaded again with {@link FileHandle#lineIndex(FileHandle)}. */
+public class LineIndex {
+	static private final long MAGIC = 0x4e4f4e4c494458L; // "NONLIDX"
+	static private final int VERSION = 1;
+	static private final int HEADER_LONGS = 4;
+	static private final long MAP_SIZE = 64L * 1024 * 1024;
+	static private final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileHandle file;
+	private final long length;
+	private final long lastModified;
+	private final long[] offsets;
+
+	private LineIndex (FileHandle file, long length, long lastModified, long[] offsets) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.offsets = offsets;
+	}
+
+	static LineIndex build (FileHandle file) {
+		long lastModified = file.lastModified();
+		FileChannel channel = file.openChannel();
+		try {
+			if (channel != null) {
+				try {
+					long length = channel.size();
+					return new LineIndex(file, length, lastModified, scan(channel, length));
+				} finally {
+					FileHandle.closeQuietly(channel);
+				}
+			}
+			InputStream input = file.read();
+			try {
+				LongArray offsets = new LongArray();
+				long length = scan(input, offsets);
+				return new LineIndex(file, length, lastModified, offsets.toArray());
+			} finally {
+				FileHandle.closeQuietly(input);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error indexing lines: " + file, ex);
+		}
+	}
+
+	/** Loads the index saved in the sidecar if it was built for the current length and last modified time of the file, otherwise
+	 * builds it and saves it to the sidecar. */
+	static LineIndex load (FileHandle file, FileHandle sidecar) {
+		long length = file.length(), lastModified = file.lastModified();
+		long sidecarLength = sidecar.exists() ? sidecar.length() : 0;
+		if (sidecarLength >= HEADER_LONGS * 8 && sidecarLength % 8 == 0) {
+			long[] longs = new long[(int)(sidecarLength / 8)];
+			try {
+				if (sidecar.readLongs(longs, ByteOrder.BIG_ENDIAN) == longs.length && longs[0] == MAGIC && longs[1] == VERSION
+					&& longs[2] == length && longs[3] == lastModified)
+					return new LineIndex(file, length, lastModified, Arrays.copyOfRange(longs, HEADER_LONGS, longs.length));
+			} catch (RuntimeException ignored) {
+				// Rebuild the index below.
+			}
+		}
+		LineIndex index = build(file);
+		index.save(sidecar);
+		return index;
+	}
+
+	/** Finds the line feeds of every mapped region of the file on the shared pool and joins the offsets in order. */
+	static private long[] scan (final FileChannel channel, final long length) throws IOException {
+		List<Future<LongArray>> parts = new ArrayList<Future<LongArray>>();
+		for (long position = 0; position < length; position += MAP_SIZE) {
+			final long start = position;
+			final long size = Math.min(MAP_SIZE, length - position);
+			parts.add(FileExecutor.get().submit(new Callable<LongArray>() {
+				@Override
+				public LongArray call () throws IOException {
+					LongArray offsets = new LongArray();
+					scan(channel.map(FileChannel.MapMode.READ_ONLY, start, size), start, offsets);
+					return offsets;
+				}
+			}));
+		}
+		try {
+			int count = length > 0 ? 1 : 0;
+			LongArray[] results = new LongArray[parts.size()];
+			for (int i = 0, n = results.length; i < n; i++) {
+				results[i] = parts.get(i).get();
+				count += results[i].size;
+			}
+			// A line feed at the very end of the file doesn't start another line.
+			LongArray last = results.length > 0 ? results[results.length - 1] : null;
+			if (last != null && last.size > 0 && last.get(last.size - 1) == length) count--;
+			long[] offsets = new long[count];
+			int offset = 0;
+			if (length > 0) offsets[offset++] = 0;
+			for (int i = 0, n = results.length; i < n; i++) {
+				int size = Math.min(results[i].size, count - offset);
+				System.arraycopy(results[i].items, 0, offsets, offset, size);
+				offset += size;
+			}
+			return offsets;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing lines.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+			throw new IOException("Error indexing lines.", ex.getCause());
+		} finally {
+			for (int i = 0, n = parts.size(); i < n; i++)
+				parts.get(i).cancel(false);
+		}
+	}
+
+	/** Adds the offset following every line feed in the region, checking eight bytes at a time for one. */
+	static private void scan (MappedByteBuffer region, long start, LongArray offsets) {
+		int limit = region.limit(), i = 0;
+		for (int words = limit & ~7; i < words; i += 8) {
+			long word = region.getLong(i) ^ 0x0a0a0a0a0a0a0a0aL;
+			if (((word - 0x0101010101010101L) & ~word & 0x8080808080808080L) == 0) continue;
+			for (int j = i, n = i + 8; j < n; j++)
+				if (region.get(j) == '\n') offsets.add(start + j + 1);
+		}
+		for (; i < limit; i++)
+			if (region.get(i) == '\n') offsets.add(start + i + 1);
+	}
+
+	/** Adds the offset following every line feed except a final one and returns the length of the stream. */
+	static private long scan (InputStream input, LongArray offsets) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long position = 0;
+		int count;
+		while ((count = input.read(buffer)) != -1) {
+			if (position == 0 && count > 0) offsets.add(0);
+			for (int i = 0; i < count; i++)
+				if (buffer[i] == '\n') offsets.add(position + i + 1);
+			position += count;
+		}
+		if (offsets.size > 1 && offsets.get(offsets.size - 1) == position) offsets.size--;
+		return position;
+	}
+
+	/** Writes this index to the sidecar file, overwriting it.
+	 * @throws RuntimeException if the sidecar could not be written. */
+	public void save (FileHandle sidecar) {
+		sidecar.writeLongs(new long[] {MAGIC, VERSION, length, lastModified}, ByteOrder.BIG_ENDIAN, false);
+		sidecar.writeLongs(offsets, ByteOrder.BIG_ENDIAN, true);
+	}
+
+	public FileHandle file () {
+		return file;
+	}
+
+	/** @return whether the length and last modified time of the file are still those the index was built for. */
+	public boolean isValid () {
+		return file.length() == length && file.lastModified() == lastModified;
+	}
+
+	/** @return the number of lines. A line feed at the end of the file doesn't start another line, an empty file has none. */
+	public int getLineCount () {
+		return offsets.length;
+	}
+
+	/** @return the offset of the first byte of the line. */
+	public long getOffset (int line) {
+		return offsets[line];
+	}
+
+	/** @return the offset just past the end of the line, including its line feed. */
+	public long getEnd (int line) {
+		return line + 1 < offsets.length ? offsets[line + 1] : length;
+	}
+
+	/** Reads one line using the default charset, see {@link #readLine(int, String)}. */
+	public String readLine (int line) {
+		return readLine(line, null);
+	}
+
+	/** Reads one line with a single positioned read, without the line feed and carriage return that end it.
+	 * @param charset may be null to use the default charset.
+	 * @throws IndexOutOfBoundsException if there is no such line.
+	 * @throws RuntimeException if the file could not be read. */
+	public String readLine (int line, String charset) {
+		return readLines(line, 1, charset)[0];
+	}
+
+	/** Reads a range of lines with a single positioned read, without the line feeds and carriage returns that end them.
+	 * @param charset may be null to use the default charset.
+	 * @throws IndexOutOfBoundsException if the range is not within the lines of the file.
+	 * @throws RuntimeException if the file could not be read. */
+	public String[] readLines (int first, int count, String charset) {
+		if (first < 0 || count < 0 || first + count > offsets.length || first + count < 0)
+			throw new IndexOutOfBoundsException("Lines " + first + " to " + (first + count) + " of " + offsets.length);
+		String[] lines = new String[count];
+		if (count == 0) return lines;
+		long start = offsets[first];
+		byte[] bytes = readBytes(start, getEnd(first + count - 1) - start);
+		try {
+			for (int i = 0; i < count; i++) {
+				int from = (int)(offsets[first + i] - start), to = (int)(getEnd(first + i) - start);
+				if (to > from && bytes[to - 1] == '\n') to--;
+				if (to > from && bytes[to - 1] == '\r') to--;
+				lines[i] = charset == null ? new String(bytes, from, to - from) : new String(bytes, from, to - from, charset);
+			}
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException("Error reading file: " + file, ex);
+		}
+		return lines;
+	}
+
+	/** Reads the bytes of a range of lines, including the line feeds, see {@link #readLines(int, int, String)}. */
+	public byte[] readLineBytes (int first, int count) {
+		if (first < 0 || count < 0 || first + count > offsets.length || first + count < 0)
+			throw new IndexOutOfBoundsException("Lines " + first + " to " + (first + count) + " of " + offsets.length);
+		if (count == 0) return new byte[0];
+		long start = offsets[first];
+		return readBytes(start, getEnd(first + count - 1) - start);
+	}
+
+	private byte[] readBytes (long position, long size) {
+		if (size > Integer.MAX_VALUE) throw new RuntimeException("Range too large to read at once: " + size + " bytes of " + file);
+		ByteBuffer buffer = ByteBuffer.allocate((int)size);
+		FileChannel channel = file.openChannel();
+		try {
+			if (channel != null) {
+				try {
+					while (buffer.hasRemaining())
+						if (channel.read(buffer, position + buffer.position()) == -1) break;
+				} finally {
+					FileHandle.closeQuietly(channel);
+				}
+			} else {
+				InputStream input = file.read();
+				try {
+					while (position > 0) {
+						long skipped = input.skip(position);
+						if (skipped <= 0) break;
+						position -= skipped;
+					}
+					byte[] array = buffer.array();
+					int count;
+					while (buffer.hasRemaining() && (count = input.read(array, buffer.position(), buffer.remaining())) != -1)
+						buffer.position(buffer.position() + count);
+				} finally {
+					FileHandle.closeQuietly(input);
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + file, ex);
+		}
+		if (buffer.hasRemaining()) throw new RuntimeException("File changed since its lines were indexed: " + file);
+		return buffer.array();
+	}
+
+	/** Growable array of longs, so the offsets are never boxed. */
+	static private class LongArray {
+		long[] items = new long[1024];
+		int size;
+
+		void add (long value) {
+			if (size == items.length) items = Arrays.copyOf(items, size << 1);
+			items[size++] = value;
+		}
+
+		long get (int index) {
+			return items[index];
+		}
+
+		long[] toArray () {
+			return Arrays.copyOf(items, size);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Counts the bytes read through the stream and reports them to {@link FileMetrics} once the stream is closed. */
+class MeteredInputStream extends FilterInputStream {
+	private final FileHandle file;
+	private final FileMetrics metrics;
+	private final long start;
+	private long bytes;
+	private long mark;
+	private boolean closed;
+
+	MeteredInputStream (InputStream input, FileHandle file, FileMetrics metrics, long start) {
+		super(input);
+		this.file = file;
+		this.metrics = metrics;
+		this.start = start;
+		metrics.streamOpened(file, Operation.Read);
+	}
+
+	@Override
+	public int read () throws IOException {
+		int value = in.read();
+		if (value != -1) bytes++;
+		return value;
+	}
+
+	@Override
+	public int read (byte[] buffer, int offset, int length) throws IOException {
+		int count = in.read(buffer, offset, length);
+		if (count > 0) bytes += count;
+		return count;
+	}
+
+	@Override
+	public long skip (long count) throws IOException {
+		long skipped = in.skip(count);
+		bytes += skipped;
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark (int readLimit) {
+		in.mark(readLimit);
+		mark = bytes;
+	}
+
+	@Override
+	public synchronized void reset () throws IOException {
+		in.reset();
+		bytes = mark;
+	}
+
+	@Override
+	public void close () throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			in.close();
+		} finally {
+			metrics.streamClosed(file, Operation.Read, bytes, System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Counts the bytes written through the stream and reports them to {@link FileMetrics} once the stream is closed. */
+class MeteredOutputStream extends FilterOutputStream {
+	private final FileHandle file;
+	private final FileMetrics metrics;
+	private final long start;
+	private long bytes;
+	private boolean closed;
+
+	MeteredOutputStream (OutputStream output, FileHandle file, FileMetrics metrics, long start) {
+		super(output);
+		this.file = file;
+		this.metrics = metrics;
+		this.start = start;
+		metrics.streamOpened(file, Operation.Write);
+	}
+
+	@Override
+	public void write (int value) throws IOException {
+		out.write(value);
+		bytes++;
+	}
+
+	@Override
+	public void write (byte[] buffer, int offset, int length) throws IOException {
+		out.write(buffer, offset, length);
+		bytes += length;
+	}
+
+	@Override
+	public void close () throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			out.close();
+		} finally {
+			metrics.streamClosed(file, Operation.Write, bytes, System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import io.nondev.nonfilesystem.FileMetrics.Operation;
+
+/** Implementation of the bulk primitive readers and writers of {@link FileHandle}. Values are decoded straight from memory mapped
+ * regions of filesystem files, or from a small reused direct buffer for everything else, without any intermediate byte arrays. */
+final class PrimitiveIO {
+	/** Files smaller than this are read through the direct buffer, mapping them costs more than it saves. */
+	static private final long MAP_THRESHOLD = 1 << 20;
+	/** Size of a single mapped region, a multiple of every element size. */
+	static private final long MAP_SIZE = 64L * 1024 * 1024;
+	static private final int BUFFER_SIZE = 64 * 1024;
+
+	private PrimitiveIO () {
+	}
+
+	/** Copies elements between a primitive array and a byte buffer. */
+	static abstract class Elements {
+		final int size;
+
+		Elements (int size) {
+			this.size = size;
+		}
+
+		abstract int length ();
+
+		abstract void get (ByteBuffer source, int offset, int count);
+
+		abstract void put (ByteBuffer dest, int offset, int count);
+	}
+
+	static Elements ints (final int[] array) {
+		return new Elements(4) {
+			int length () {
+				return array.length;
+			}
+
+			void get (ByteBuffer source, int offset, int count) {
+				source.asIntBuffer().get(array, offset, count);
+			}
+
+			void put (ByteBuffer dest, int offset, int count) {
+				dest.asIntBuffer().put(array, offset, count);
+			}
+		};
+	}
+
+	static Elements longs (final long[] array) {
+		return new Elements(8) {
+			int length () {
+				return array.length;
+			}
+
+			void get (ByteBuffer source, int offset, int count) {
+				source.asLongBuffer().get(array, offset, count);
+			}
+
+			void put (ByteBuffer dest, int offset, int count) {
+				dest.asLongBuffer().put(array, offset, count);
+			}
+		};
+	}
+
+	static Elements floats (final float[] array) {
+		return new Elements(4) {
+			int length () {
+				return array.length;
+			}
+
+			void get (ByteBuffer source, int offset, int count) {
+				source.asFloatBuffer().get(array, offset, count);
+			}
+
+			void put (ByteBuffer dest, int offset, int count) {
+				dest.asFloatBuffer().put(array, offset, count);
+			}
+		};
+	}
+
+	static Elements doubles (final double[] array) {
+		return new Elements(8) {
+			int length () {
+				return array.length;
+			}
+
+			void get (ByteBuffer source, int offset, int count) {
+				source.asDoubleBuffer().get(array, offset, count);
+			}
+
+			void put (ByteBuffer dest, int offset, int count) {
+				dest.asDoubleBuffer().put(array, offset, count);
+			}
+		};
+	}
+
+	/** Reads elements from the start of the file until the array is full or the file ends.
+	 * @return the number of elements read. */
+	static int read (FileHandle handle, Elements elements, ByteOrder order) {
+		ReadableByteChannel channel = handle.readChannel();
+		// Other channels are streams, which report themselves.
+		long start = channel instanceof FileChannel ? handle.begin(Operation.Read) : 0;
+		int count = 0;
+		try {
+			int length = elements.length();
+			if (channel instanceof FileChannel && ((FileChannel)channel).size() >= MAP_THRESHOLD) {
+				FileChannel fileChannel = (FileChannel)channel;
+				count = (int)Math.min(length, fileChannel.size() / elements.size);
+				int perRegion = (int)(MAP_SIZE / elements.size);
+				for (int offset = 0; offset < count; offset += perRegion) {
+					int regionCount = Math.min(perRegion, count - offset);
+					ByteBuffer region = fileChannel.map(FileChannel.MapMode.READ_ONLY, (long)offset * elements.size,
+						(long)regionCount * elements.size);
+					elements.get(region.order(order), offset, regionCount);
+				}
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+				while (count < length) {
+					int read = channel.read(buffer);
+					buffer.flip();
+					int available = Math.min(length - count, buffer.remaining() / elements.size);
+					elements.get(buffer, count, available);
+					buffer.position(buffer.position() + available * elements.size);
+					buffer.compact();
+					count += available;
+					if (read == -1) break;
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+		if (channel instanceof FileChannel) handle.record(Operation.Read, (long)count * elements.size, start);
+		return count;
+	}
+
+	/** Writes all elements of the array to the file. */
+	static void write (FileHandle handle, Elements elements, ByteOrder order, boolean append) {
+		long start = handle.begin(Operation.Write);
+		FileChannel channel = handle.writeChannel(append);
+		int length = elements.length();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+			int perBuffer = BUFFER_SIZE / elements.size;
+			for (int offset = 0; offset < length; offset += perBuffer) {
+				int count = Math.min(perBuffer, length - offset);
+				buffer.clear();
+				elements.put(buffer, offset, count);
+				buffer.limit(count * elements.size);
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+		handle.record(Operation.Write, (long)length * elements.size, start);
+	}
+
+	/** Reads from the start of the file until the buffer is full or the file ends.
+	 * @return the number of bytes read. */
+	static int readInto (FileHandle handle, ByteBuffer dest) {
+		ReadableByteChannel channel = handle.readChannel();
+		// Other channels are streams, which report themselves.
+		long start = channel instanceof FileChannel ? handle.begin(Operation.Read) : 0;
+		int total = 0;
+		try {
+			while (dest.hasRemaining()) {
+				int count = channel.read(dest);
+				if (count == -1) break;
+				total += count;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading file: " + handle + " (" + handle.type() + ")", ex);
+		} finally {
+			FileHandle.closeQuietly(channel);
+		}
+		if (channel instanceof FileChannel) handle.record(Operation.Read, total, start);
+		return total;
+	}
+}
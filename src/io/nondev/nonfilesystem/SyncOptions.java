@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import io.nondev.nonfilesystem.FileHandle.Algorithm;
+
+/** Controls how {@link FileHandle#syncTo(FileHandle, SyncOptions)} decides which files to copy. */
+public class SyncOptions {
+	/** If true, files of equal length are compared by checksum instead of by last modified time. Slower, but catches changes
+	 * that kept both the length and the modification time. Files without a modification time, such as classpath files, are
+	 * always compared by checksum. */
+	public boolean compareChecksums = false;
+
+	/** The algorithm used when files are compared by checksum. */
+	public Algorithm algorithm = Algorithm.XxHash64;
+
+	/** Maximum difference in milliseconds between two modification times that are still considered equal. Raise this for
+	 * filesystems that store modification times with a coarse resolution, e.g. 2000 for FAT. */
+	public long modifyWindow = 0;
+
+	/** If true, files and directories in the destination that don't exist in the source are deleted. */
+	public boolean deleteExtraneous = false;
+
+	/** If true, changed files are copied on multiple threads. */
+	public boolean parallel = true;
+}
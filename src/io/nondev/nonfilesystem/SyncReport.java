@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Describes the changes made by {@link FileHandle#syncTo(FileHandle, SyncOptions)}. */
+public class SyncReport {
+	/** Destination files that were created or overwritten. */
+	public final List<FileHandle> copied = new ArrayList<FileHandle>();
+
+	/** Destination files and directories that were deleted because they don't exist in the source. */
+	public final List<FileHandle> deleted = new ArrayList<FileHandle>();
+
+	/** Number of files that were left alone because they didn't change. */
+	public int unchanged;
+
+	/** Number of bytes written to the destination. */
+	public long bytesCopied;
+
+	synchronized void copied (FileHandle file, long length) {
+		copied.add(file);
+		bytesCopied += length;
+	}
+
+	synchronized void deleted (FileHandle file) {
+		deleted.add(file);
+	}
+
+	synchronized void unchanged () {
+		unchanged++;
+	}
+
+	@Override
+	public String toString () {
+		return copied.size() + " copied (" + bytesCopied + " bytes), " + deleted.size() + " deleted, " + unchanged + " unchanged";
+	}
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2015 Thomas Slusny
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+
+package io.nondev.nonfilesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Creates scratch files and directories in a private directory that is deleted on {@link #close()}, or when the JVM shuts down
+ * if the storage wasn't closed. By default the directory is created on the RAM backed filesystem mounted at /dev/shm when there
+ * is one, otherwise in java.io.tmpdir.
+ * 
+ * Files are released with {@link #release(FileHandle)} when they are no longer needed. Released files are truncated and kept in
+ * a pool that new files are taken from, so a job creating thousands of scratch files doesn't create and delete thousands of
+ * directory entries. The storage has a quota: once the files in use take up that much space, new files are created in a
+ * directory on disk if the storage is RAM backed, otherwise creating them fails. The space is measured at most every 100 ms,
+ * outside the lock, and space freed by releasing files is accounted for right away, so creating files stays cheap however many
+ * are in use; in exchange a burst of writes can overshoot the quota for that long. All methods are thread safe. */
+public class TempStorage implements Closeable {
+	/** Nanoseconds the measured usage is trusted for. */
+	static private final long SAMPLE_INTERVAL = 100 * 1000000L;
+	static private final Set<TempStorage> open = new LinkedHashSet<TempStorage>();
+	static private Thread shutdownHook;
+
+	private final Files files;
+	private final File directory;
+	private final boolean ramBacked;
+	private final long quota;
+	private final int poolSize;
+	private final ArrayDeque<File> pool = new ArrayDeque<File>();
+	private final Set<File> used = new LinkedHashSet<File>();
+	private File spillDirectory;
+	private int count;
+	private boolean closed;
+	/** Last measured space taken up by the files in use, minus what was released since. */
+	private long usage;
+	private long sampleTime;
+	private boolean sampling;
+
+	/** Creates a storage in /dev/shm if available, otherwise in java.io.tmpdir, with a quota of 256 MB and a pool of 16 files. */
+	public TempStorage (Files files) {
+		this(files, null, 256L * 1024 * 1024, 16);
+	}
+
+	/** @param root the directory to create the storage in, may be null to use /dev/shm if available, otherwise java.io.tmpdir.
+	 * @param quota the number of bytes the files in use may take up before new files go to disk or fail.
+	 * @param poolSize the number of empty files kept ready, created right away. */
+	public TempStorage (Files files, File root, long quota, int poolSize) {
+		if (quota < 0) throw new IllegalArgumentException("quota cannot be < 0: " + quota);
+		if (poolSize < 0) throw new IllegalArgumentException("poolSize cannot be < 0: " + poolSize);
+		if (root == null) root = ramDirectory();
+		ramBacked = root != null && root.equals(ramDirectory());
+		if (root == null) root = new File(System.getProperty("java.io.tmpdir"));
+		this.files = files;
+		this.quota = quota;
+		this.poolSize = poolSize;
+		directory = createDirectory(root);
+		// Nothing is in use yet.
+		sampleTime = System.nanoTime();
+		synchronized (open) {
+			open.add(this);
+			if (shutdownHook == null) {
+				shutdownHook = new Thread("nonfilesystem-temp-cleanup") {
+					@Override
+					public void run () {
+						TempStorage[] storages;
+						synchronized (open) {
+							storages = open.toArray(new TempStorage[open.size()]);
+						}
+						for (TempStorage storage : storages)
+							storage.close();
+					}
+				};
+				Runtime.getRuntime().addShutdownHook(shutdownHook);
+			}
+		}
+		synchronized (this) {
+			try {
+				for (int i = 0; i < poolSize; i++) {
+					File file = nextFile(directory);
+					if (!file.createNewFile()) throw new IOException("Unable to create temp file: " + file);
+					pool.add(file);
+				}
+			} catch (IOException ex) {
+				close();
+				throw new RuntimeException("Unable to create temp file.", ex);
+			}
+		}
+	}
+
+	/** @return the directory of the RAM backed filesystem, /dev/shm, or null if there is none that can be written. */
+	static public File ramDirectory () {
+		File shm = new File("/dev/shm");
+		return shm.isDirectory() && shm.canWrite() ? shm : null;
+	}
+
+	static private File createDirectory (File root) {
+		for (int attempt = 0; attempt < 100; attempt++) {
+			long random = System.nanoTime() ^ (long)(Math.random() * Long.MAX_VALUE);
+			File directory = new File(root, "nonfilesystem-" + Long.toHexString(random));
+			if (directory.mkdirs()) return directory;
+		}
+		throw new RuntimeException("Unable to create temp directory in: " + root);
+	}
+
+	private File nextFile (File directory) {
+		return new File(directory, "tmp-" + count++);
+	}
+
+	/** @return the directory the files are created in, deleted on {@link #close()}. */
+	public File getDirectory () {
+		return directory;
+	}
+
+	/** @return whether the files are created on a RAM backed filesystem, until the quota is reached. */
+	public boolean isRamBacked () {
+		return ramBacked;
+	}
+
+	/** @return the number of bytes taken up by the files and directories in use. Every file in use is asked for its length. */
+	public long getUsage () {
+		File[] files;
+		synchronized (this) {
+			files = used.toArray(new File[used.size()]);
+		}
+		long usage = 0;
+		for (File file : files)
+			usage += usage(file);
+		synchronized (this) {
+			this.usage = usage;
+			sampleTime = System.nanoTime();
+		}
+		return usage;
+	}
+
+	/** Returns the usage measured last, measuring it again if that was too long ago and no other thread is measuring it. */
+	private long sampledUsage () {
+		synchronized (this) {
+			if (sampling || System.nanoTime() - sampleTime < SAMPLE_INTERVAL) return usage;
+			sampling = true;
+		}
+		try {
+			return getUsage();
+		} finally {
+			synchronized (this) {
+				sampling = false;
+			}
+		}
+	}
+
+	static private long usage (File file) {
+		if (!file.isDirectory()) return file.length();
+		long usage = 0;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				usage += usage(child);
+		}
+		return usage;
+	}
+
+	/** Returns an empty file, taken from the pool if possible.
+	 * @throws RuntimeException if the storage was closed, the quota is reached and the storage is not RAM backed, or the file
+	 *            could not be created. */
+	public FileHandle newFile () {
+		long usage = sampledUsage();
+		synchronized (this) {
+			File parent = parent(usage);
+			try {
+				File file = parent == directory ? pool.poll() : null;
+				if (file == null) {
+					file = nextFile(parent);
+					if (!file.createNewFile()) throw new IOException("Unable to create temp file: " + file);
+				}
+				used.add(file);
+				return files.absolute(file.getPath());
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to create temp file.", ex);
+			}
+		}
+	}
+
+	/** Returns an empty directory.
+	 * @throws RuntimeException if the storage was closed, the quota is reached and the storage is not RAM backed, or the
+	 *            directory could not be created. */
+	public FileHandle newDirectory () {
+		long usage = sampledUsage();
+		synchronized (this) {
+			File file = nextFile(parent(usage));
+			if (!file.mkdir()) throw new RuntimeException("Unable to create temp directory: " + file);
+			used.add(file);
+			return files.absolute(file.getPath());
+		}
+	}
+
+	/** Returns the directory new files are created in, on disk once the quota is reached if the storage is RAM backed. */
+	private File parent (long usage) {
+		if (closed) throw new RuntimeException("The temp storage was closed.");
+		if (usage < quota) return directory;
+		if (!ramBacked) throw new RuntimeException("Temp storage quota of " + quota + " bytes exceeded: " + directory);
+		if (spillDirectory == null) spillDirectory = createDirectory(new File(System.getProperty("java.io.tmpdir")));
+		return spillDirectory;
+	}
+
+	/** Releases a file or directory returned by this storage. Files are truncated and returned to the pool if it isn't full, the
+	 * rest is deleted. Handles that were already released or don't belong to this storage are ignored. */
+	public synchronized void release (FileHandle handle) {
+		File file = handle.file();
+		if (!used.remove(file)) return;
+		usage = Math.max(0, usage - usage(file));
+		if (!closed && pool.size() < poolSize && file.getParentFile().equals(directory) && file.isFile()) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(0);
+				} finally {
+					raf.close();
+				}
+				pool.add(file);
+				return;
+			} catch (IOException ignored) {
+				// Delete it below.
+			}
+		}
+		delete(file);
+	}
+
+	static private void delete (File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	/** Deletes all files and directories of this storage, including those still in use. Does nothing if already closed. */
+	public void close () {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			used.clear();
+			pool.clear();
+			delete(directory);
+			if (spillDirectory != null) delete(spillDirectory);
+		}
+		synchronized (open) {
+			open.remove(this);
+		}
+	}
+}